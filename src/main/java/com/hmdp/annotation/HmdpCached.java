@@ -0,0 +1,57 @@
+package com.hmdp.annotation;
+
+import com.hmdp.utils.CacheStrategy;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 CacheClient 的策略缓存方法的返回值, 方法体只负责查询数据库.
+ * 缓存 key 为 prefix + key 的求值结果, 返回 null 时按策略缓存空值.
+ * 同一个类内部调用需要通过 AopContext.currentProxy() 才会经过缓存
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HmdpCached {
+
+    /**
+     * redis key 前缀
+     */
+    String prefix();
+
+    /**
+     * key 中 id 部分的 SpEL, 例如 #id; 为空时取唯一的参数, 没有参数时为空串
+     */
+    String key() default "";
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 配置了该属性时, 以属性值作为查询策略, 便于按环境切换
+     */
+    String strategyProperty() default "";
+
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 过期时间随机增加的比例, 0.1 表示在 [ttl, ttl * 1.1) 内随机, 避免大量 key 同时过期
+     */
+    double jitter() default 0.1;
+
+    /**
+     * 是否同时使用本地缓存; 已通过 CacheClient.setCacheLevel 配置的前缀以配置为准
+     */
+    boolean l1() default false;
+
+    /**
+     * 方法返回 List 时的元素类型
+     */
+    Class<?> elementType() default Object.class;
+}
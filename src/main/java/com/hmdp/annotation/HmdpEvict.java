@@ -0,0 +1,27 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后失效缓存, 见 CacheClient.invalidate: 递增版本并删除,
+ * 在事务中推迟到提交之后, 并延迟再删除一次
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HmdpEvict {
+
+    /**
+     * 要失效的 redis key 前缀, 同一个 id 可以对应多个前缀
+     */
+    String[] prefix();
+
+    /**
+     * key 中 id 部分的 SpEL, 例如 #shop.id; 为空时取唯一的参数, 求值为 null 时不失效
+     */
+    String key() default "";
+}
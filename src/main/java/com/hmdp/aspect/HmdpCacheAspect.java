@@ -0,0 +1,151 @@
+package com.hmdp.aspect;
+
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.annotation.HmdpEvict;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheLevel;
+import com.hmdp.utils.CacheStrategy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.env.Environment;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * HmdpCached / HmdpEvict 的实现, 所有读写都经过 CacheClient:
+ * 过期时间加随机抖动, 空值缓存由各策略负责, 每次查询按前缀记录命中与耗时
+ */
+@Slf4j
+@Aspect
+@Component
+public class HmdpCacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private Environment environment;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Around("@annotation(cached)")
+    @SuppressWarnings("unchecked")
+    public Object cached(ProceedingJoinPoint pjp, HmdpCached cached) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        Object id = keyOf(cached.key(), method, pjp);
+        if (id == null) {
+            return pjp.proceed();
+        }
+        String prefix = cached.prefix();
+        CacheStrategy strategy = strategyOf(cached);
+        cacheClient.setCacheLevelIfAbsent(prefix, cached.l1() ? CacheLevel.L1_L2 : CacheLevel.L2);
+        // 1.List 按元素类型的数组缓存, 解码时才知道元素类型
+        boolean isList = List.class.isAssignableFrom(method.getReturnType());
+        Class<Object> type = (Class<Object>) (isList
+                ? Array.newInstance(cached.elementType(), 0).getClass()
+                : method.getReturnType());
+        // 2.经过 CacheClient 查询, 未命中时执行方法体
+        AtomicBoolean loaded = new AtomicBoolean();
+        long start = System.nanoTime();
+        Object value = cacheClient.query(strategy, prefix, id, type, k -> {
+            loaded.set(true);
+            Object r = proceed(pjp);
+            return isList && r != null
+                    ? ((List<?>) r).toArray((Object[]) Array.newInstance(cached.elementType(), 0))
+                    : r;
+        }, ttlWithJitter(cached), TimeUnit.MILLISECONDS);
+        // 3.记录命中与耗时
+        Timer.builder("cache.query")
+                .description("注解缓存的查询耗时")
+                .tag("prefix", prefix)
+                .tag("strategy", strategy.name())
+                .tag("result", loaded.get() ? "miss" : "hit")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return isList && value != null ? Arrays.asList((Object[]) value) : value;
+    }
+
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint jp, HmdpEvict evict) {
+        Method method = ((MethodSignature) jp.getSignature()).getMethod();
+        Object id = keyOf(evict.key(), method, jp);
+        if (id == null) {
+            return;
+        }
+        cacheClient.invalidate(Arrays.stream(evict.prefix())
+                .map(prefix -> prefix + id)
+                .collect(Collectors.toList()));
+    }
+
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 求 key 中 id 部分, 返回 null 表示不使用缓存
+     */
+    private Object keyOf(String key, Method method, JoinPoint jp) {
+        Object[] args = jp.getArgs();
+        if (key.isEmpty()) {
+            if (args.length > 1) {
+                throw new IllegalStateException("方法有多个参数, 需要指定 key: " + method);
+            }
+            return args.length == 0 ? "" : args[0];
+        }
+        Expression expression = expressions.computeIfAbsent(key, parser::parseExpression);
+        return expression.getValue(new MethodBasedEvaluationContext(jp.getTarget(), method, args, nameDiscoverer));
+    }
+
+    private CacheStrategy strategyOf(HmdpCached cached) {
+        if (cached.strategyProperty().isEmpty()) {
+            return cached.strategy();
+        }
+        return environment.getProperty(cached.strategyProperty(), CacheStrategy.class, cached.strategy());
+    }
+
+    /**
+     * 过期时间(毫秒)加上 [0, ttl * jitter) 的随机值
+     */
+    private static long ttlWithJitter(HmdpCached cached) {
+        long ttlMillis = cached.unit().toMillis(cached.ttl());
+        long bound = (long) (ttlMillis * cached.jitter());
+        return bound <= 0 ? ttlMillis : ttlMillis + ThreadLocalRandom.current().nextLong(bound);
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.RedisBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.LOCK_BLOOM_REBUILD_KEY;
+
+/**
+ * 布隆过滤器的初始化与定期重建.
+ * 启动时优先加载 Redis 中已有的位图, 没有时由抢到锁的节点从数据库全量构建;
+ * 布隆过滤器不支持删除, 定期全量重建以清除已删除数据残留的位
+ */
+@Slf4j
+@Component
+public class BloomFilterInitializer implements ApplicationRunner {
+
+    /**
+     * 每次从数据库读取的 id 数
+     */
+    private static final int SCAN_BATCH_SIZE = 5000;
+
+    @Resource
+    private BloomFilterRegistry bloomFilters;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 过滤器名 -> 遍历数据库全部 id 的方式
+     */
+    private Map<String, Consumer<Consumer<Object>>> sources() {
+        Map<String, Consumer<Consumer<Object>>> sources = new LinkedHashMap<>();
+        sources.put(BloomFilterRegistry.SHOP, sink -> scanIds(shopService, Shop::getId, sink));
+        sources.put(BloomFilterRegistry.BLOG, sink -> scanIds(blogService, Blog::getId, sink));
+        sources.put(BloomFilterRegistry.USER, sink -> scanIds(userService, User::getId, sink));
+        sources.put(BloomFilterRegistry.VOUCHER, sink -> scanIds(voucherService, Voucher::getId, sink));
+        return sources;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        sources().forEach((name, source) -> {
+            RedisBloomFilter filter = bloomFilters.get(name);
+            // 1.Redis 中已有位图, 直接加载
+            if (filter.load()) {
+                log.info("布隆过滤器 {} 已从Redis加载", name);
+                return;
+            }
+            // 2.没有位图, 抢到锁的节点负责构建, 其他节点等待重新加载的通知
+            rebuild(filter, source);
+        });
+    }
+
+    /**
+     * 定期全量重建, 只有一个节点执行
+     */
+    @Scheduled(cron = "${hmdp.bloom.rebuild-cron:0 0 4 * * ?}")
+    public void rebuildAll() {
+        sources().forEach((name, source) -> rebuild(bloomFilters.get(name), source));
+    }
+
+    private void rebuild(RedisBloomFilter filter, Consumer<Consumer<Object>> source) {
+        RLock lock = redissonClient.getLock(LOCK_BLOOM_REBUILD_KEY + filter.getName());
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            filter.rebuild(source);
+            bloomFilters.publishReload(filter.getName());
+        } catch (Exception e) {
+            log.error("布隆过滤器 {} 重建失败", filter.getName(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按主键分批读取 id, 避免一次加载整张表
+     */
+    private <T> void scanIds(IService<T> service, Function<T, Long> getId, Consumer<Object> sink) {
+        long lastId = 0;
+        while (true) {
+            List<T> rows = service.query()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SCAN_BATCH_SIZE)
+                    .list();
+            for (T row : rows) {
+                sink.accept(getId.apply(row));
+            }
+            if (rows.size() < SCAN_BATCH_SIZE) {
+                return;
+            }
+            lastId = getId.apply(rows.get(rows.size() - 1));
+        }
+    }
+}
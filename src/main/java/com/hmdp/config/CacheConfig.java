@@ -0,0 +1,20 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+    /**
+     * 缓存值编解码器: json 与历史格式一致, binary 为紧凑二进制格式且兼容读取 json
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:json}") String codec) {
+        return "binary".equalsIgnoreCase(codec) ? new BinaryCacheCodec() : new JsonCacheCodec();
+    }
+}
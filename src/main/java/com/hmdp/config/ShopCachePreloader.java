@@ -0,0 +1,294 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 店铺缓存预热:
+ * 1. 启动时同步加载热点店铺, 加载完成前就绪状态为 REFUSING_TRAFFIC
+ * 2. 之后在后台按主键游标分批加载全部店铺, 每批一次 pipeline 写入
+ * 3. 定期按 update_time 增量同步新增和修改的店铺
+ * 游标查询只读 id 和 update_time, 写入前由 CacheClient 先读版本再按 id 查询整行,
+ * 预热期间被更新的店铺不会写入旧数据
+ */
+@Slf4j
+@Component
+public class ShopCachePreloader implements ApplicationRunner {
+
+    private static final String NAME = "shop";
+
+    private final ExecutorService preloadExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-cache-preload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ApplicationContext applicationContext;
+
+    @Value("${hmdp.cache.preload.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 写入格式与店铺查询策略一致
+     */
+    @Value("${hmdp.cache.shop.strategy:LOGICAL_EXPIRE}")
+    private CacheStrategy strategy;
+
+    /**
+     * 每批读取的店铺数
+     */
+    @Value("${hmdp.cache.preload.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * 启动时同步加载的热点店铺数(按销量)
+     */
+    @Value("${hmdp.cache.preload.hot-set-size:1000}")
+    private int hotSetSize;
+
+    /**
+     * 增量同步时向前多查的时间, 防止事务晚提交的数据被漏掉
+     */
+    @Value("${hmdp.cache.preload.overlap-seconds:60}")
+    private long overlapSeconds;
+
+    /**
+     * 热点店铺加载失败时是否仍然接收流量; 默认不接收, 后台每隔 hot-set-retry-millis 重试直到成功
+     */
+    @Value("${hmdp.cache.preload.ready-on-failure:false}")
+    private boolean readyOnFailure;
+
+    @Value("${hmdp.cache.preload.hot-set-retry-millis:5000}")
+    private long hotSetRetryMillis;
+
+    private volatile boolean fullLoadDone;
+
+    @PreDestroy
+    private void destroy() {
+        preloadExecutor.shutdownNow();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        // 1.热点店铺加载完成前不接收流量
+        AvailabilityChangeEvent.publish(applicationContext, ReadinessState.REFUSING_TRAFFIC);
+        if (loadHotSet()) {
+            AvailabilityChangeEvent.publish(applicationContext, ReadinessState.ACCEPTING_TRAFFIC);
+        } else if (readyOnFailure) {
+            log.warn("热点店铺缓存预热失败, 按 ready-on-failure 配置降级, 未预热也接收流量");
+            AvailabilityChangeEvent.publish(applicationContext, ReadinessState.ACCEPTING_TRAFFIC);
+        } else {
+            // 保持不接收流量, 后台重试成功后再就绪
+            preloadExecutor.submit(this::retryHotSet);
+        }
+        // 2.其余店铺在后台全量加载
+        preloadExecutor.submit(this::fullLoad);
+    }
+
+    private boolean loadHotSet() {
+        try {
+            long start = System.currentTimeMillis();
+            List<Shop> hotShops = shopService.query()
+                    .select("id")
+                    .orderByDesc("sold")
+                    .last("limit " + hotSetSize)
+                    .list();
+            for (int i = 0; i < hotShops.size(); i += chunkSize) {
+                write(hotShops.subList(i, Math.min(i + chunkSize, hotShops.size())));
+            }
+            log.info("热点店铺缓存预热完成, 共 {} 条, 耗时 {} ms", hotShops.size(), System.currentTimeMillis() - start);
+            return true;
+        } catch (Exception e) {
+            log.error("热点店铺缓存预热失败", e);
+            return false;
+        }
+    }
+
+    private void retryHotSet() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(hotSetRetryMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (loadHotSet()) {
+                AvailabilityChangeEvent.publish(applicationContext, ReadinessState.ACCEPTING_TRAFFIC);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按主键游标分批全量加载, 只有一个节点执行
+     */
+    private void fullLoad() {
+        RLock lock = redissonClient.getLock(LOCK_CACHE_PRELOAD_KEY + NAME);
+        if (!lock.tryLock()) {
+            log.info("其他节点正在预热店铺缓存");
+            fullLoadDone = true;
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int total = shopService.count();
+            int loaded = 0;
+            long lastId = 0;
+            LocalDateTime watermark = null;
+            while (true) {
+                List<Shop> shops = shopService.query()
+                        .select("id", "update_time")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + chunkSize)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                write(shops);
+                loaded += shops.size();
+                lastId = shops.get(shops.size() - 1).getId();
+                watermark = maxUpdateTime(shops, watermark);
+                log.info("店铺缓存预热进度: {}/{}", loaded, total);
+                if (shops.size() < chunkSize) {
+                    break;
+                }
+            }
+            saveWatermark(watermark);
+            log.info("店铺缓存全量预热完成, 共 {} 条, 耗时 {} ms", loaded, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("店铺缓存全量预热失败", e);
+        } finally {
+            lock.unlock();
+            fullLoadDone = true;
+        }
+    }
+
+    /**
+     * 增量同步 update_time 之后新增和修改的店铺, 按 (update_time, id) 游标分批读取
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.preload.incremental-delay-millis:60000}")
+    public void incrementalLoad() {
+        if (!enabled || !fullLoadDone) {
+            return;
+        }
+        String saved = stringRedisTemplate.opsForValue().get(CACHE_PRELOAD_WATERMARK_KEY + NAME);
+        if (saved == null) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_CACHE_PRELOAD_KEY + NAME);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime watermark = LocalDateTime.parse(saved);
+            LocalDateTime cursorTime = watermark.minusSeconds(overlapSeconds);
+            long cursorId = 0;
+            int loaded = 0;
+            while (true) {
+                LocalDateTime time = cursorTime;
+                long id = cursorId;
+                List<Shop> shops = shopService.query()
+                        .select("id", "update_time")
+                        .and(w -> w.gt("update_time", time).or(o -> o.eq("update_time", time).gt("id", id)))
+                        .orderByAsc("update_time", "id")
+                        .last("limit " + chunkSize)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                write(shops);
+                // 预先序列化的响应同时失效, 递增版本并通知所有节点, 回源中的旧响应不会再写回
+                cacheClient.invalidate(shops.stream()
+                        .map(shop -> CACHE_SHOP_RESP_KEY + shop.getId())
+                        .collect(Collectors.toList()));
+                loaded += shops.size();
+                Shop last = shops.get(shops.size() - 1);
+                cursorTime = last.getUpdateTime();
+                cursorId = last.getId();
+                watermark = maxUpdateTime(shops, watermark);
+                if (shops.size() < chunkSize) {
+                    break;
+                }
+            }
+            saveWatermark(watermark);
+            if (loaded > 0) {
+                log.info("店铺缓存增量同步 {} 条", loaded);
+            }
+        } catch (Exception e) {
+            log.error("店铺缓存增量同步失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(List<Shop> shops) {
+        List<Long> ids = shops.stream().map(Shop::getId).collect(Collectors.toList());
+        cacheClient.preload(strategy, CACHE_SHOP_KEY, ids,
+                idSet -> shopService.listByIds(idSet).stream()
+                        .collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 水位取数据库中的 update_time, 不依赖应用服务器时钟
+     */
+    private static LocalDateTime maxUpdateTime(List<Shop> shops, LocalDateTime current) {
+        LocalDateTime max = current;
+        for (Shop shop : shops) {
+            LocalDateTime updateTime = shop.getUpdateTime();
+            if (updateTime != null && (max == null || updateTime.isAfter(max))) {
+                max = updateTime;
+            }
+        }
+        return max;
+    }
+
+    private void saveWatermark(LocalDateTime watermark) {
+        if (watermark != null) {
+            stringRedisTemplate.opsForValue().set(CACHE_PRELOAD_WATERMARK_KEY + NAME, watermark.toString());
+        }
+    }
+}
@@ -7,6 +7,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -29,12 +31,15 @@ public class ShopController {
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
-     * @return 商铺详情数据
+     * @return 商铺详情数据, 命中缓存时直接写出缓存中的 JSON 字节
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        return shopService.queryById(id);
+    public ResponseEntity<?> queryShopById(@PathVariable("id") Long id) {
+        byte[] json = shopService.queryJsonById(id);
+        if (json == null) {
+            return ResponseEntity.ok(Result.fail("店铺不存在"));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json);
     }
 
     /**
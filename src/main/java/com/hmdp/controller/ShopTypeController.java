@@ -1,9 +1,10 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -26,7 +27,8 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
-        return Result.ok(typeService.queryList());
+    public ResponseEntity<byte[]> queryTypeList() {
+        // 直接写出缓存中的 JSON 字节
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(typeService.queryListJson());
     }
 }
@@ -4,6 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillWaitingRoom;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -23,6 +24,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private SeckillWaitingRoom waitingRoom;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -45,6 +49,20 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 设置秒杀券等候室每秒放行人数
+     * @param voucherId 优惠券id
+     * @param rate 每秒放行人数
+     */
+    @PutMapping("seckill/{id}/admission-rate")
+    public Result setAdmissionRate(@PathVariable("id") Long voucherId, @RequestParam("rate") Long rate) {
+        if (rate == null || rate <= 0) {
+            return Result.fail("放行人数必须大于0");
+        }
+        waitingRoom.setRate(voucherId, rate);
+        return Result.ok();
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
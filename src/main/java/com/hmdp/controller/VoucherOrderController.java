@@ -4,10 +4,15 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.OrderResultNotifier;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -26,8 +31,34 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private OrderResultNotifier orderResultNotifier;
+
+    /**
+     * 秒杀下单, 开启等候室时需要携带排队放行后拿到的 token
+     */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 @RequestParam(value = "token", required = false) String token) {
+        return voucherOrderService.seckillVoucher(voucherId, token);
+    }
+
+    /**
+     * 长轮询等待订单处理结果, 超时返回 PENDING, 客户端再次请求即可
+     * @param orderId 下单时返回的订单id
+     * @param timeout 最长等待时间(毫秒)
+     */
+    @GetMapping("result/{orderId}")
+    public DeferredResult<Result> queryOrderResult(@PathVariable("orderId") Long orderId,
+                                                   @RequestParam(value = "timeout", defaultValue = "30000") Long timeout) {
+        return orderResultNotifier.await(orderId, UserHolder.getUser().getId(), timeout);
+    }
+
+    /**
+     * 进入等候室或查询排队进度, 放行后返回下单 token
+     */
+    @PostMapping("room/{id}")
+    public Result enterWaitingRoom(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.enterWaitingRoom(voucherId);
     }
 }
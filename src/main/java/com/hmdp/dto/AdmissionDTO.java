@@ -0,0 +1,27 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class AdmissionDTO {
+    /**
+     * 是否已放行, 放行后凭 token 下单
+     */
+    private Boolean admitted;
+    /**
+     * 下单凭证, 未放行时为空
+     */
+    private String token;
+    /**
+     * 前面还有的人数
+     */
+    private Long position;
+    /**
+     * 预计等待时间(秒)
+     */
+    private Long etaSeconds;
+    /**
+     * 建议下次查询的间隔(毫秒)
+     */
+    private Long pollAfterMillis;
+}
@@ -0,0 +1,27 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class HotKeyDTO {
+    /**
+     * 缓存key
+     */
+    private String key;
+    /**
+     * 统计窗口内估计的访问 Redis 次数
+     */
+    private Long estimatedCount;
+    /**
+     * 本地固定副本的命中、未命中次数
+     */
+    private Long hits;
+    private Long misses;
+    private Double hitRate;
+    /**
+     * 最近一次被判定为热点的时间
+     */
+    private LocalDateTime promotedAt;
+}
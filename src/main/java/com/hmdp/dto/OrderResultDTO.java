@@ -0,0 +1,45 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.Data;
+
+@Data
+public class OrderResultDTO {
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILED = "FAILED";
+    public static final String PENDING = "PENDING";
+
+    private Long orderId;
+    private Long userId;
+    private Long voucherId;
+    /**
+     * SUCCESS 已入库; FAILED 未能入库, 原因见 message; PENDING 仍在处理
+     */
+    private String status;
+    private String message;
+
+    public static OrderResultDTO success(VoucherOrder order) {
+        return of(order, SUCCESS, null);
+    }
+
+    public static OrderResultDTO fail(VoucherOrder order, String message) {
+        return of(order, FAILED, message);
+    }
+
+    public static OrderResultDTO pending(Long orderId) {
+        OrderResultDTO result = new OrderResultDTO();
+        result.setOrderId(orderId);
+        result.setStatus(PENDING);
+        return result;
+    }
+
+    private static OrderResultDTO of(VoucherOrder order, String status, String message) {
+        OrderResultDTO result = new OrderResultDTO();
+        result.setOrderId(order.getId());
+        result.setUserId(order.getUserId());
+        result.setVoucherId(order.getVoucherId());
+        result.setStatus(status);
+        result.setMessage(message);
+        return result;
+    }
+}
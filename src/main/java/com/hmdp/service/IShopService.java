@@ -17,5 +17,15 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 按缓存策略查询店铺, 不存在时返回 null
+     */
+    Shop queryShop(Long id);
+
+    /**
+     * 查询店铺详情, 返回已序列化的 Result JSON, 店铺不存在时返回 null
+     */
+    byte[] queryJsonById(Long id);
+
     Result update(Shop shop);
 }
@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -15,4 +17,14 @@ import com.hmdp.entity.ShopType;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryList();
+
+    /**
+     * 按 sort 排序的店铺类型, 经过缓存
+     */
+    List<ShopType> queryTypes();
+
+    /**
+     * 查询店铺类型列表, 返回已序列化的接口响应 JSON
+     */
+    byte[] queryListJson();
 }
@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.dto.OrderResultDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -15,5 +18,26 @@ import com.hmdp.entity.VoucherOrder;
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    /**
+     * 秒杀下单, 开启等候室时需要携带放行后拿到的 token
+     */
+    Result seckillVoucher(Long voucherId, String token);
+
+    /**
+     * 进入等候室或查询排队进度
+     */
+    Result enterWaitingRoom(Long voucherId);
+
+    /**
+     * 创建订单, 同一订单重复消费时视为成功
+     * @return 订单处理结果
+     */
+    OrderResultDTO createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单, 同一事务内按优惠券聚合扣减库存并多行插入
+     * @param voucherOrders 订单列表
+     * @return 每个订单的处理结果
+     */
+    List<OrderResultDTO> createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
 }
@@ -2,7 +2,6 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
@@ -12,6 +11,8 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
@@ -21,10 +22,14 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
 import javax.annotation.Resource;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -44,6 +49,22 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterRegistry bloomFilters;
+
+    @Override
+    public boolean save(Blog blog) {
+        boolean saved = super.save(blog);
+        if (saved) {
+            // 新笔记加入布隆过滤器
+            bloomFilters.put(BloomFilterRegistry.BLOG, blog.getId());
+        }
+        return saved;
+    }
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -52,16 +73,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
+        // 0.布隆过滤器判断一定不存在, 不查数据库
+        if (!bloomFilters.mightContain(BloomFilterRegistry.BLOG, id)) {
+            return Result.fail("笔记不存在");
+        }
         // 1.查询 blog
         // 2.根据 blog 的 userId 查询用户信息
         return Optional.ofNullable(getById(id)).map(b -> {
@@ -139,18 +162,39 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         List<Long> ids = top5.stream()
                 .map(Long::valueOf)
                 .collect(Collectors.toList());
-        // 3.根据用户id查询用户
-        String idStr = StrUtil.join(StrUtil.COMMA, ids);
-        String orderSql = "order by field(id,".concat(idStr).concat(")");
-        List<User> userList = userService.query().in("id", ids).last(orderSql).list();
-        List<UserDTO> userDTOList =
-                userList.stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        // 3.根据用户id批量查询用户, 结果与点赞顺序一致
+        List<UserDTO> userDTOList = cacheClient.queryBatchWithPassThrough(
+                RedisConstants.CACHE_USER_KEY, ids, UserDTO.class, this::queryUserDTOs,
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream()
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
 
         return Result.ok(userDTOList);
     }
 
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = cacheClient.queryBatchWithPassThrough(
+                RedisConstants.CACHE_USER_KEY, userIds, UserDTO.class, this::queryUserDTOs,
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
+        for (int i = 0; i < blogs.size(); i++) {
+            UserDTO user = users.get(i);
+            if (user != null) {
+                blogs.get(i).setName(user.getNickName());
+                blogs.get(i).setIcon(user.getIcon());
+            }
+        }
+    }
+
+    private Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
+    }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
         User user = userService.getById(userId);
@@ -1,28 +1,27 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.annotation.HmdpEvict;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheLevel;
+import com.hmdp.utils.CacheStrategy;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
-import io.netty.util.internal.StringUtil;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -38,14 +37,42 @@ import static com.hmdp.utils.RedisConstants.*;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    // 缓存重建的线程池
-    public static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private CacheClient cacheClient;
 
-    @Autowired
-    private StringRedisTemplate redisTemplate;
+    @Resource
+    private BloomFilterRegistry bloomFilters;
 
     @Resource
-    private CacheClient cacheClient;
+    private ObjectMapper objectMapper;
+
+    /**
+     * 店铺缓存层级: L1 本地、L2 Redis、L1_L2 两级
+     */
+    @Value("${hmdp.cache.shop.level:L1_L2}")
+    private CacheLevel shopCacheLevel;
+
+    @PostConstruct
+    private void init() {
+        cacheClient.setCacheLevel(CACHE_SHOP_KEY, shopCacheLevel);
+        cacheClient.setBloomFilter(CACHE_SHOP_KEY, bloomFilters.get(BloomFilterRegistry.SHOP));
+        // 切换策略后桶中可能仍有旧数据, 始终在失效时一起删除
+        cacheClient.setBucketed(CACHE_SHOP_KEY);
+        cacheClient.setCacheLevel(CACHE_SHOP_RESP_KEY, shopCacheLevel);
+        cacheClient.setBloomFilter(CACHE_SHOP_RESP_KEY, bloomFilters.get(BloomFilterRegistry.SHOP));
+        // 响应字节由店铺数据序列化得到, 店铺缓存异步刷新后一起失效, 不必等响应自身过期
+        cacheClient.addDependent(CACHE_SHOP_KEY, CACHE_SHOP_RESP_KEY);
+    }
+
+    @Override
+    public boolean save(Shop shop) {
+        boolean saved = super.save(shop);
+        if (saved) {
+            // 新店铺加入布隆过滤器, 否则查询会被判为不存在
+            bloomFilters.put(BloomFilterRegistry.SHOP, shop.getId());
+        }
+        return saved;
+    }
 
     @Override
     public Result queryById(Long id) {
@@ -56,146 +83,64 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         // Shop shop = queryWithMutex(id);
         // 逻辑过期解决缓存击穿
-         Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 按配置的策略查询, 默认逻辑过期, 可切换为提前刷新; 经过代理才会走缓存
+        Shop shop = ((IShopService) AopContext.currentProxy()).queryShop(id);
         return Objects.isNull(shop) ? Result.fail("店铺不存在") : Result.ok(shop);
     }
 
-    // 防止缓存击穿(互斥锁，缓存穿透时，多线程只能有一个线程访问数据库)
-    // 防止缓存穿透
-    public Shop queryWithMutex(Long id){
-        // 1.redis缓存是否存在
-        String key = CACHE_SHOP_KEY.concat(id.toString());
-        String json = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json) && JSONUtil.isJson(json)){
-            Shop shop = JSONUtil.toBean(json, Shop.class);
-            return shop;
-        }
-        // 1.2 命中的是否是空值, 防止缓存穿透
-        if (json != null){
-            // 返回错误信息
-            return null;
-        }
-        // 获取互斥锁，防止缓存击穿
-        String lockKey = LOCK_SHOP_KEY.concat(id.toString());
-        Shop shop = null;
+    @Override
+    @HmdpCached(prefix = CACHE_SHOP_KEY, strategy = CacheStrategy.LOGICAL_EXPIRE,
+            strategyProperty = "hmdp.cache.shop.strategy", ttl = 30)
+    public Shop queryShop(Long id) {
+        return getById(id);
+    }
+
+    @Override
+    public byte[] queryJsonById(Long id) {
+        // 缓存最终的响应字节, 命中时直接写出, 不再经过 Shop 对象和 Jackson
+        return cacheClient.queryRaw(CACHE_SHOP_RESP_KEY, id, shopId -> {
+            Result result = queryById(shopId);
+            return Boolean.TRUE.equals(result.getSuccess()) ? toJsonBytes(result) : null;
+        }, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    private byte[] toJsonBytes(Result result) {
         try {
-            boolean isLock = tryLock(lockKey);
-            if (Boolean.FALSE.equals(isLock)){
-                Thread.sleep(50);
-                queryWithMutex(id);
-            }
-            // 2 成功查数据库
-            shop = getById(id);
-            // 模拟重建延时
-            Thread.sleep(200);
-            // 3.店铺是否存在，存在添加缓存，不存在返回404
-            if (Objects.isNull(shop)){
-                // 3.1 将空值写入redis
-                redisTemplate.opsForValue().set(key, StringUtil.EMPTY_STRING, CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 3.2 不存在，返回404
-                return null;
-            }
-            // 3.2 添加缓存
-            redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
+            // 与 Spring MVC 使用同一个 ObjectMapper, 输出与原接口一致
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
-        } finally {
-            unlock(lockKey);
         }
+    }
 
-        return shop;
+    // 防止缓存击穿(互斥锁，缓存穿透时，多线程只能有一个线程访问数据库)
+    // 防止缓存穿透
+    public Shop queryWithMutex(Long id){
+        // 同一节点内的并发请求合并为一次回源, 只有回源的线程去竞争 Redis 互斥锁
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
 
     // 防止缓存穿透
     public Shop queryWithPassThrough(Long id){
-        // 1.redis缓存是否存在
-        String key = CACHE_SHOP_KEY.concat(id.toString());
-        String json = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json) && JSONUtil.isJson(json)){
-            Shop shop = JSONUtil.toBean(json, Shop.class);
-            return shop;
-        }
-        // 1.2 命中的是否是空值, 防止缓存穿透
-        if (json != null){
-            // 返回错误信息
-            return null;
-        }
-        // 2 成功查数据库
-        Shop shop = getById(id);
-        // 3.店铺是否存在，存在添加缓存，不存在返回404
-        if (Objects.isNull(shop)){
-            // 3.1 将空值写入redis
-            redisTemplate.opsForValue().set(key, StringUtil.EMPTY_STRING, CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 3.2 不存在，返回404
-            return null;
-        }
-        // 3.2 添加缓存
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return shop;
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     // 逻辑删除防止缓存击穿
     // 防止缓存穿透
     public Shop queryWithLogicExpire(Long id){
-        // 1.redis缓存是否存在
-        String key = CACHE_SHOP_KEY.concat(id.toString());
-        String json = redisTemplate.opsForValue().get(key);
-        // 如果为空, 直接返回
-        if (StrUtil.isBlank(json)){
-            try {
-                saveShop2Redis(id, LOCK_SHOP_TTL);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-            String jsonForBuild = redisTemplate.opsForValue().get(key);
-            RedisData redisData = JSONUtil.toBean(jsonForBuild, RedisData.class);
-            return BeanUtil.toBean(redisData, Shop.class);
-        }
-        // 不为空，判断数据是否过期
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        Shop shop = BeanUtil.toBean(redisData.getData(), Shop.class);
-        // 未过期，直接返回
-        if (LocalDateTime.now().isBefore(expireTime)){
+        Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        if (shop != null) {
             return shop;
         }
-        // 过期了
-        // 6.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY.concat(id.toString());
-        boolean isLock = tryLock(lockKey);
-        // 6.2 锁是否获取成功
-        if (isLock){
-        // TODO:6.3 成功，开启独立线程, 实现缓存重建
-
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 拿到锁以后，要再次检测缓存是否过期
-                    String jsonForDoubleCheck = redisTemplate.opsForValue().get(key);
-                    LocalDateTime expireTimeCheck = JSONUtil.toBean(jsonForDoubleCheck, RedisData.class).getExpireTime();
-                    if (LocalDateTime.now().isAfter(expireTimeCheck)){
-                        // 重建缓存
-                        saveShop2Redis(id, LOCK_SHOP_TTL);
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
+        // 未预热, 先写入再返回
+        try {
+            saveShop2Redis(id, LOCK_SHOP_TTL);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
         }
-        // 6.4 失败，返回过期的旧数据
-        return shop;
-    }
-
-    private boolean tryLock(String key){
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unlock(String key){
-        redisTemplate.delete(key);
+        return getById(id);
     }
 
     private void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
@@ -203,17 +148,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         Shop shop = getById(id);
         // 模拟重建需要时间
         Thread.sleep(200);
-        // 2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 3.放到redis缓存
+        // 2.按缓存编解码器写入逻辑过期数据
         String key = CACHE_SHOP_KEY.concat(id.toString());
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        cacheClient.setWithLogicalExpire(key, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
     @Override
     @Transactional
+    @HmdpEvict(prefix = {CACHE_SHOP_KEY, CACHE_SHOP_RESP_KEY}, key = "#shop.id")
     public Result update(Shop shop) {
         // 写入数据库
         Long id = shop.getId();
@@ -221,9 +163,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空!");
         }
         updateById(shop);
-        String key = CACHE_SHOP_KEY.concat(id.toString());
-        // 删除缓存
-        redisTemplate.delete(key);
+        // 由 HmdpEvict 在事务提交后递增版本并删除缓存, 进行中的旧重建不能再写入; 延迟后再删除一次
         return Result.ok();
     }
 }
@@ -1,22 +1,22 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.collection.CollectionUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.annotation.HmdpCached;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.stereotype.Service;
 
-import java.util.Comparator;
+import javax.annotation.Resource;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 
 /**
@@ -30,28 +30,45 @@ import java.util.stream.Collectors;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
-    @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ObjectMapper objectMapper;
 
     @Override
-    public Result queryList() {
-        List<String> jsonList = stringRedisTemplate.opsForList().range(RedisConstants.CACHE_SHOPTYPE_KEY, 0, -1);
-        List<ShopType> typeList;
-        if (CollectionUtil.isNotEmpty(jsonList)){
-            typeList = jsonList.stream()
-                    .map(json -> JSONUtil.toBean(json, ShopType.class))
-                    .sorted(Comparator.comparingInt(ShopType::getSort))
-                    .collect(Collectors.toList());
-
-            return Result.ok(typeList);
+    public byte[] queryListJson() {
+        // 缓存最终的响应字节, 结构与原接口一致: Result.ok(queryList())
+        // 只缓存成功的响应, 店铺类型为空时不缓存, 下次查询重新回源
+        byte[] json = cacheClient.queryRaw(RedisConstants.CACHE_SHOP_TYPE_RESP_KEY, "list", k -> {
+            Result result = queryList();
+            return Boolean.TRUE.equals(result.getSuccess()) ? toJsonBytes(Result.ok(result)) : null;
+        }, RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES, false);
+        return json != null ? json : toJsonBytes(Result.ok(queryList()));
+    }
+
+    private byte[] toJsonBytes(Result result) {
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
         }
-        typeList = query().orderByAsc("sort").list();
+    }
+
+    @Override
+    public Result queryList() {
+        List<ShopType> typeList = ((IShopTypeService) AopContext.currentProxy()).queryTypes();
         if (CollectionUtil.isEmpty(typeList)){
             return Result.fail("店铺类型为空");
         }
-        List<String> jsons = typeList.stream().map(JSONUtil::toJsonStr).collect(Collectors.toList());
-        stringRedisTemplate.opsForList().rightPushAll(RedisConstants.CACHE_SHOPTYPE_KEY, jsons);
-        stringRedisTemplate.expire(RedisConstants.CACHE_SHOPTYPE_KEY, RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
         return Result.ok(typeList);
     }
+
+    @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_SHOPTYPE_KEY + ":", key = "'list'", ttl = 30, elementType = ShopType.class)
+    public List<ShopType> queryTypes() {
+        List<ShopType> typeList = query().orderByAsc("sort").list();
+        // 空表返回 null, 只按空值的有效期缓存, 不把空列表缓存 30 分钟
+        return typeList.isEmpty() ? null : typeList;
+    }
 }
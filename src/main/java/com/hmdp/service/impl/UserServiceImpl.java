@@ -10,12 +10,15 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
@@ -41,6 +44,26 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterRegistry bloomFilters;
+
+    @PostConstruct
+    private void init() {
+        cacheClient.setBloomFilter(RedisConstants.CACHE_USER_KEY, bloomFilters.get(BloomFilterRegistry.USER));
+    }
+
+    @Override
+    public boolean save(User user) {
+        boolean saved = super.save(user);
+        if (saved) {
+            // 新用户加入布隆过滤器
+            bloomFilters.put(BloomFilterRegistry.USER, user.getId());
+        }
+        return saved;
+    }
 
     @Override
     public Result sedCode(String phone, HttpSession session) {
@@ -1,23 +1,38 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.OrderResultDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.OrderResultNotifier;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisRateLimiter;
+import com.hmdp.utils.SeckillDedupMode;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockLeaser;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWaitingRoom;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
@@ -25,14 +40,21 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -41,21 +63,169 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
-    @Resource
-    private RedisIdWorker redisIdWorker;
-
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private RedissonClient redissonClient;
 
-    public static final ExecutorService SECKILL_ORDER_SERVICE = Executors.newSingleThreadExecutor();
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private BloomFilterRegistry bloomFilters;
+
+    @Resource
+    private SeckillStockLeaser stockLeaser;
+
+    @Resource
+    private SeckillStockShards stockShards;
+
+    @Resource
+    private SeckillWaitingRoom waitingRoom;
+
+    /**
+     * 是否开启等候室, 开启后只有排队放行的用户才能下单
+     */
+    @Value("${hmdp.seckill.room.enabled:false}")
+    private boolean waitingRoomEnabled;
+
+    @Resource
+    private RedisRateLimiter rateLimiter;
+
+    @Resource
+    private OrderResultNotifier orderResultNotifier;
+
+    /**
+     * 是否开启秒杀限流, 按券和按用户各一个令牌桶
+     */
+    @Value("${hmdp.seckill.rate-limit.enabled:false}")
+    private boolean rateLimitEnabled;
+
+    @Value("${hmdp.seckill.rate-limit.voucher-capacity:1000}")
+    private long voucherLimitCapacity;
+
+    @Value("${hmdp.seckill.rate-limit.voucher-rate:500}")
+    private double voucherLimitRate;
+
+    @Value("${hmdp.seckill.rate-limit.user-capacity:5}")
+    private long userLimitCapacity;
+
+    @Value("${hmdp.seckill.rate-limit.user-rate:1}")
+    private double userLimitRate;
+
+    /**
+     * 是否开启库存租约, 开启后节点在本地判断库存, 只有通过的请求才访问 Redis 做一人一单
+     */
+    @Value("${hmdp.seckill.lease.enabled:false}")
+    private boolean leaseEnabled;
+
+    /**
+     * 一人一单的去重结构, 从 SET 迁移到 BITMAP 时先切到 BOTH, 旧集合过期或活动结束后再切到 BITMAP
+     */
+    @Value("${hmdp.seckill.dedup:SET}")
+    private SeckillDedupMode dedupMode;
+
+    /**
+     * 订单消息队列分区数, 按 userId 哈希路由到 stream.orders.{p}
+     * 注意: 分区数变化后同一用户会落到另一个分区, 新旧分区中的订单由不同消费者并发处理,
+     * 因此启动时若分区数与上次不同且旧分区仍有未消费的消息, 直接启动失败
+     */
+    @Value("${hmdp.seckill.order.partitions:4}")
+    private int partitions;
+
+    /**
+     * 每个节点的消费者线程数
+     */
+    @Value("${hmdp.seckill.order.consumers:2}")
+    private int consumers;
+
+    /**
+     * 节点标识, 用于生成节点内唯一的消费者名称, 为空时使用 主机名:端口
+     */
+    @Value("${hmdp.seckill.order.node-id:}")
+    private String nodeId;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private ExecutorService seckillOrderExecutor;
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_SERVICE.submit(new VoucherOrderHandler());
+        // 0.分区数变化前, 所有分区必须已经消费完
+        checkPartitionChange();
+        // 1.确保每个分区的消费者组存在
+        for (int p = 0; p < partitions; p++) {
+            createGroupIfAbsent(RedisConstants.SECKILL_ORDER_STREAM_KEY + p);
+        }
+        // 2.启动消费者线程, 每个线程只消费自己抢到的分区; 另有一个线程消费完分区前的旧 stream
+        if (StrUtil.isBlank(nodeId)) {
+            nodeId = NetUtil.getLocalHostName() + ":" + serverPort;
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumers + 1);
+        for (int i = 0; i < consumers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(i));
+        }
+        seckillOrderExecutor.submit(new LegacyStreamDrainer());
     }
+
+    private void checkPartitionChange() {
+        String stored = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_ORDER_PARTITIONS_KEY);
+        if (stored != null && Integer.parseInt(stored) != partitions) {
+            int previous = Integer.parseInt(stored);
+            for (int p = 0; p < Math.max(previous, partitions); p++) {
+                String streamKey = RedisConstants.SECKILL_ORDER_STREAM_KEY + p;
+                if (hasUnconsumed(streamKey)) {
+                    throw new IllegalStateException("订单分区数由 " + previous + " 改为 " + partitions
+                            + ", 但 " + streamKey + " 仍有未消费的订单, 请先用原分区数消费完再修改");
+                }
+            }
+            log.info("订单分区数由 {} 改为 {}", previous, partitions);
+        }
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_ORDER_PARTITIONS_KEY, String.valueOf(partitions));
+    }
+
+    /**
+     * stream 中是否还有未确认或未投递给消费者组的消息
+     */
+    private boolean hasUnconsumed(String streamKey) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return false;
+        }
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(streamKey);
+        return stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                .filter(group -> RedisConstants.SECKILL_ORDER_GROUP.equals(group.groupName()))
+                .findFirst()
+                .map(group -> group.pendingCount() > 0 || !info.lastGeneratedId().equals(group.lastDeliveredId()))
+                .orElse(info.streamLength() > 0);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 中断消费者线程, 线程退出前会释放持有的分区锁
+        seckillOrderExecutor.shutdownNow();
+    }
+
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            // XGROUP CREATE stream.orders.{p} g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8),
+                            RedisConstants.SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // BUSYGROUP, 消费者组已经存在
+            log.debug("消费者组已存在, stream: {}", streamKey);
+        }
+    }
+
+    /**
+     * 根据用户id计算订单分区, 同一用户的订单始终落在同一分区
+     */
+    private int partitionOf(Long userId) {
+        return Math.floorMod(Long.hashCode(userId), partitions);
+    }
+
 //    多线程调用时，使用AOP对象会报错
 //    private static final IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
 
@@ -63,67 +233,388 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private IVoucherOrderService voucherOrderService;
 
-    private class VoucherOrderHandler implements Runnable{
+    /**
+     * 是否开启批量消费
+     */
+    @Value("${hmdp.seckill.order.batch-enabled:true}")
+    private boolean batchEnabled;
+
+    /**
+     * 每批最多读取的订单数
+     */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
 
-        private static final String QUEUE_NAME = "stream.orders";
+    /**
+     * 凑批的最长等待时间(毫秒)
+     */
+    @Value("${hmdp.seckill.order.max-linger-millis:50}")
+    private long maxLingerMillis;
+
+    /**
+     * 单条消息最多投递次数, 超过后转入死信 stream, 不再阻塞分区
+     */
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private long maxDeliveries;
+
+    /**
+     * 创建订单、通知结果并确认消息, 分区消费者与旧 stream 共用
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        if (!batchEnabled || records.size() == 1) {
+            // 读取多个分区时每个分区最多返回一条, 逐条处理并确认, 不能只处理第一条
+            handleOneByOne(records);
+            return;
+        }
+        // 2.3 整批在一个事务内创建订单
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        Map<String, List<RecordId>> recordIds = new LinkedHashMap<>();
+        List<OrderResultDTO> results;
+        try {
+            for (MapRecord<String, Object, Object> record : records) {
+                voucherOrders.add(toVoucherOrder(record.getValue()));
+                recordIds.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+            }
+            results = voucherOrderService.createVoucherOrderBatch(voucherOrders);
+        } catch (Exception e) {
+            // 整批失败时逐条重试, 一条坏消息不会拖住整批
+            log.warn("批量创建订单失败, 逐条处理, 条数: {}", records.size(), e);
+            handleOneByOne(records);
+            return;
+        }
+        // 2.4 事务提交后通知每个订单的结果
+        orderResultNotifier.publish(results);
+        // 2.5 每个分区一次 XACK 确认整批
+        recordIds.forEach((streamKey, ids) -> stringRedisTemplate.opsForStream()
+                .acknowledge(streamKey, RedisConstants.SECKILL_ORDER_GROUP, ids.toArray(new RecordId[0])));
+    }
+
+    /**
+     * 逐条创建订单并确认. 失败的消息留在 pending-list 中重试, 投递次数达到上限后转入死信 stream 并确认;
+     * 仍有消息待重试时抛出异常, 由调用方处理 pending-list
+     */
+    private void handleOneByOne(List<MapRecord<String, Object, Object>> records) {
+        int retrying = 0;
+        Exception cause = null;
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                // 2.3 创建订单
+                VoucherOrder voucherOrder = toVoucherOrder(record.getValue());
+                OrderResultDTO result = handleVoucherOrder(voucherOrder);
+                // 2.4 事务提交后通知结果, 通知失败时消息留在 pending-list 中重试, 重复消费视为成功
+                orderResultNotifier.publish(Collections.singletonList(result));
+                // 2.5 ack 确认
+                stringRedisTemplate.opsForStream().acknowledge(record.getStream(), RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+            } catch (Exception e) {
+                if (!deadLetterIfExhausted(record, e)) {
+                    retrying++;
+                    cause = e;
+                }
+            }
+        }
+        if (retrying > 0) {
+            throw new IllegalStateException("订单处理失败, 待重试条数: " + retrying, cause);
+        }
+    }
+
+    /**
+     * 投递次数达到上限时把消息连同失败原因写入死信 stream 并确认
+     *
+     * @return 是否已转入死信
+     */
+    private boolean deadLetterIfExhausted(MapRecord<String, Object, Object> record, Exception e) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(record.getStream(),
+                RedisConstants.SECKILL_ORDER_GROUP, Range.closed(record.getId().getValue(), record.getId().getValue()), 1);
+        long deliveries = pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+        if (deliveries < maxDeliveries) {
+            log.warn("订单消息处理失败, stream: {}, id: {}, 已投递: {}", record.getStream(), record.getId(), deliveries, e);
+            return false;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        record.getValue().forEach((k, v) -> fields.put(k.toString(), String.valueOf(v)));
+        fields.put("stream", record.getStream());
+        fields.put("recordId", record.getId().getValue());
+        fields.put("error", String.valueOf(e));
+        stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY, fields);
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+        log.error("订单消息投递 {} 次仍失败, 转入死信, stream: {}, id: {}, 内容: {}",
+                deliveries, record.getStream(), record.getId(), record.getValue(), e);
+        // 通知等待结果的客户端, 消息本身无法解析时只能等客户端超时
+        try {
+            orderResultNotifier.publish(Collections.singletonList(
+                    OrderResultDTO.fail(toVoucherOrder(record.getValue()), "订单处理失败")));
+        } catch (Exception ex) {
+            log.warn("通知死信订单结果失败, id: {}", record.getId(), ex);
+        }
+        return true;
+    }
+
+    /**
+     * 消费分区前写入 stream.orders 的订单. 这些订单已在 Lua 中扣过库存并登记了用户,
+     * 丢弃就会少单: 先认领旧消费者未确认的消息, 再读完未投递的消息, 都处理完后删除旧 stream.
+     * 由分布式锁保证只有一个节点处理, 失败时重试, 旧 stream 不存在时直接结束
+     */
+    private class LegacyStreamDrainer implements Runnable {
+
+        private final String streamKey = RedisConstants.SECKILL_ORDER_LEGACY_STREAM_KEY;
+
+        private final Consumer consumer = Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, nodeId + "-legacy");
 
         @Override
         public void run() {
-            while(true){
+            while (!Thread.currentThread().isInterrupted()) {
+                RLock lock = redissonClient.getLock(RedisConstants.LOCK_ORDER_LEGACY_KEY);
                 try {
-                    // 1.从消息队列中获取订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(QUEUE_NAME, ReadOffset.lastConsumed())
+                    if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+                        return;
+                    }
+                    if (lock.tryLock()) {
+                        try {
+                            drain();
+                        } finally {
+                            lock.unlock();
+                        }
+                        return;
+                    }
+                    // 其它节点正在处理, 等它处理完或宕机后再检查
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log.error("处理旧订单stream异常", e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
 
-                    );
-                    // 2.1 判断消息是否获取成功, 如果获取失败，说明没有消息，继续下一次循环
-                    if (CollectionUtils.isEmpty(list)){
-                        continue;
+        private void drain() {
+            createGroupIfAbsent(streamKey);
+            // 1.认领旧消费者未确认的消息
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), Long.MAX_VALUE);
+            RecordId[] ids = pending.stream()
+                    .filter(message -> !consumer.getName().equals(message.getConsumerName()))
+                    .map(PendingMessage::getId)
+                    .toArray(RecordId[]::new);
+            if (ids.length > 0) {
+                stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                        .xClaimJustId(streamKey.getBytes(StandardCharsets.UTF_8),
+                                RedisConstants.SECKILL_ORDER_GROUP,
+                                consumer.getName(),
+                                RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(ids)));
+            }
+            // 2.先处理 pending-list, 再处理未投递的消息, 与分区消费者使用同一个处理逻辑
+            long drained = drain(ReadOffset.from("0")) + drain(ReadOffset.lastConsumed());
+            // 3.全部确认后删除旧 stream, 之后启动不再处理
+            if (!hasUnconsumed(streamKey)) {
+                stringRedisTemplate.delete(streamKey);
+                log.info("旧订单stream已消费完并删除, 本次处理订单数: {}", drained);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private long drain(ReadOffset offset) {
+            long drained = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchEnabled ? batchSize : 1),
+                        StreamOffset.create(streamKey, offset));
+                if (CollectionUtils.isEmpty(list)) {
+                    return drained;
+                }
+                handleRecords(list);
+                drained += list.size();
+            }
+            return drained;
+        }
+    }
+
+    /**
+     * 订单消费者. 第 i 个线程负责 p % consumers == i 的分区,
+     * 每个分区需要先抢到分区锁才能消费, 保证全局只有一个写入者, 同一用户的订单天然串行
+     */
+    private class VoucherOrderHandler implements Runnable{
+
+        /**
+         * 未抢到全部分区时, 重新抢锁的间隔
+         */
+        private static final long ACQUIRE_INTERVAL_MILLIS = 5000;
+
+        private final int index;
+
+        private final Consumer consumer;
+
+        /**
+         * 当前线程持有的分区锁, key 为分区对应的 stream
+         */
+        private final Map<String, RLock> ownedPartitions = new LinkedHashMap<>();
+
+        private long nextAcquireTime;
+
+        VoucherOrderHandler(int index) {
+            this.index = index;
+            // 消费者名称在节点内唯一
+            this.consumer = Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, nodeId + "-c" + index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(!Thread.currentThread().isInterrupted()){
+                    try {
+                        // 0.抢占分区
+                        acquirePartitions();
+                        if (ownedPartitions.isEmpty()) {
+                            Thread.sleep(ACQUIRE_INTERVAL_MILLIS);
+                            continue;
+                        }
+                        // 1.从消息队列中获取订单信息
+                        List<MapRecord<String, Object, Object>> list = batchEnabled
+                                ? readBatch()
+                                : stringRedisTemplate.opsForStream().read(
+                                        consumer,
+                                        StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                                        offsets(ReadOffset.lastConsumed())
+                                );
+                        // 2.1 判断消息是否获取成功, 如果获取失败，说明没有消息，继续下一次循环
+                        if (CollectionUtils.isEmpty(list)){
+                            continue;
+                        }
+                        // 2.2 如果获取成功，可以下单
+                        handleRecords(list);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        log.error("订单处理异常", e);
+                        handlePendingList();
                     }
-                    // 2.2 如果获取成功，可以下单
-                    // 2.3 创建订单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    // 2.4 ack 确认
-                    stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME,"g1", record.getId());
+                }
+            } finally {
+                releasePartitions();
+            }
+        }
+
+        private void acquirePartitions() {
+            int expected = 0;
+            for (int p = index; p < partitions; p += consumers) {
+                expected++;
+            }
+            long now = System.currentTimeMillis();
+            if (ownedPartitions.size() == expected || now < nextAcquireTime) {
+                return;
+            }
+            nextAcquireTime = now + ACQUIRE_INTERVAL_MILLIS;
+            for (int p = index; p < partitions; p += consumers) {
+                String streamKey = RedisConstants.SECKILL_ORDER_STREAM_KEY + p;
+                if (ownedPartitions.containsKey(streamKey)) {
+                    continue;
+                }
+                // 不设置 leaseTime, 由看门狗续期, 节点宕机后锁自动过期, 由其它节点接管
+                RLock lock = redissonClient.getLock(RedisConstants.LOCK_ORDER_PARTITION_KEY + p);
+                if (!lock.tryLock()) {
+                    continue;
+                }
+                ownedPartitions.put(streamKey, lock);
+                log.info("消费者 {} 接管订单分区 {}", consumer.getName(), streamKey);
+                claimPending(streamKey);
+            }
+        }
+
+        /**
+         * 接管分区时, 把上一个持有者未确认的消息转移到自己名下, 之后由 handlePendingList 处理
+         */
+        private void claimPending(String streamKey) {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), Long.MAX_VALUE);
+            RecordId[] ids = pending.stream()
+                    .filter(message -> !consumer.getName().equals(message.getConsumerName()))
+                    .map(PendingMessage::getId)
+                    .toArray(RecordId[]::new);
+            if (ids.length == 0) {
+                return;
+            }
+            stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                    .xClaimJustId(streamKey.getBytes(StandardCharsets.UTF_8),
+                            RedisConstants.SECKILL_ORDER_GROUP,
+                            consumer.getName(),
+                            RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(ids)));
+            handlePendingList();
+        }
+
+        private void releasePartitions() {
+            ownedPartitions.values().forEach(lock -> {
+                try {
+                    lock.unlock();
                 } catch (Exception e) {
-                    log.error("订单处理异常", e);
-                    handlePendingList();
+                    log.warn("释放分区锁失败", e);
                 }
+            });
+            ownedPartitions.clear();
+        }
+
+        @SuppressWarnings("unchecked")
+        private StreamOffset<String>[] offsets(ReadOffset readOffset) {
+            return ownedPartitions.keySet().stream()
+                    .map(streamKey -> StreamOffset.create(streamKey, readOffset))
+                    .toArray(StreamOffset[]::new);
+        }
+
+        /**
+         * 凑批读取: 最多读取 batchSize 条, 第一条到达后最多再等待 maxLingerMillis
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            List<MapRecord<String, Object, Object>> batch = stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                    offsets(ReadOffset.lastConsumed())
+            );
+            if (CollectionUtils.isEmpty(batch) || batch.size() >= batchSize || maxLingerMillis <= 0) {
+                return batch;
             }
+            List<MapRecord<String, Object, Object>> records = new ArrayList<>(batch);
+            long deadline = System.currentTimeMillis() + maxLingerMillis;
+            long remaining;
+            // 注意 BLOCK 0 表示无限等待, 剩余时间不足 1ms 时直接结束
+            while (records.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                List<MapRecord<String, Object, Object>> more = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize - records.size()).block(Duration.ofMillis(remaining)),
+                        offsets(ReadOffset.lastConsumed())
+                );
+                if (CollectionUtils.isEmpty(more)) {
+                    break;
+                }
+                records.addAll(more);
+            }
+            return records;
         }
 
         private void handlePendingList() {
-            while (true){
+            while (!Thread.currentThread().isInterrupted()){
                 try{
-                    // 获取pendingList中的订单信息 XREADGROUP g1 c1 COUNT 1 STREAMS stream.orders 0
+                    // 获取pendingList中的订单信息 XREADGROUP g1 c COUNT n STREAMS stream.orders.{p} 0
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(QUEUE_NAME, ReadOffset.from("0")));
+                            consumer,
+                            StreamReadOptions.empty().count(batchEnabled ? batchSize : 1),
+                            offsets(ReadOffset.from("0")));
                     // 2.1 判断消息是否获取成功, 如果获取失败，说明没有消息，继续下一次循环
                     if (CollectionUtils.isEmpty(list)){
                         break;
                     }
                     // 2.2 如果获取成功，可以下单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 2.3 创建订单
-                    handleVoucherOrder(voucherOrder);
-                    // 2.4 ack 确认
-                    stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME,"g1", record.getId());
+                    handleRecords(list);
                 }catch (Exception e){
                     // 如果处理PendingList里的数据出现了异常，不用管，打个日志就可以。数据还会在PendingList里
                     log.error("处理pending-list异常", e);
                     try {
                         Thread.sleep(20);
                     } catch (InterruptedException ex) {
-                        log.error("线程休眠异常", ex);
+                        Thread.currentThread().interrupt();
                     }
                 }
 
@@ -134,35 +625,178 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     }
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setResultType(List.class);
+    }
+
+    private static final DefaultRedisScript<List> SECKILL_LEASED_SCRIPT;
+    static {
+        SECKILL_LEASED_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_LEASED_SCRIPT.setLocation(new ClassPathResource("seckill_leased.lua"));
+        SECKILL_LEASED_SCRIPT.setResultType(List.class);
+    }
+
+    @Override
+    public Result enterWaitingRoom(Long voucherId) {
+        // 售罄或券不存在时不必排队
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        if (!bloomFilters.mightContain(BloomFilterRegistry.VOUCHER, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        return Result.ok(waitingRoom.enter(voucherId, UserHolder.getUser().getId()));
     }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 1.执行Lua脚本
+        return seckillVoucher(voucherId, null);
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId, String token) {
+        // 0.本地已登记售罄, 直接返回, 不访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 0.1.布隆过滤器判断优惠券一定不存在
+        if (!bloomFilters.mightContain(BloomFilterRegistry.VOUCHER, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        // 0.2.开启等候室时校验放行 token, 本地验签, 不访问Redis
         Long userId = UserHolder.getUser().getId();
-        // 获取订单id
-        long orderId = redisIdWorker.nextId("order");
+        if (waitingRoomEnabled && !waitingRoom.verify(voucherId, userId, token)) {
+            return Result.fail("请先排队");
+        }
+        // 0.3.限流, 在分配订单号和执行下单脚本之前拒绝; 先判断用户桶, 刷单的用户不占用券的令牌
+        if (rateLimitEnabled && !rateLimiter.tryAcquire(
+                new RedisRateLimiter.Bucket("seckill-user", userId, userLimitCapacity, userLimitRate, false),
+                new RedisRateLimiter.Bucket("seckill-voucher", voucherId, voucherLimitCapacity, voucherLimitRate, true))) {
+            return Result.fail("请求过于频繁, 请稍后重试");
+        }
+        // 1.执行Lua脚本, 校验通过后才在脚本内分配订单序列号
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = RedisIdWorker.timestampOf(now);
+        int shards = stockShards.shardsOf(voucherId);
+        boolean leased = leaseEnabled && shards <= 1;
+        List<?> result;
+        if (shards > 1) {
+            result = seckillWithShards(voucherId, userId, shards, now, timestamp);
+        } else if (leased) {
+            result = seckillWithLease(voucherId, userId, now, timestamp);
+        } else {
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    userId.toString(),
+                    RedisIdWorker.counterKey("order", now),
+                    String.valueOf(timestamp),
+                    RedisConstants.SECKILL_ORDER_STREAM_KEY + partitionOf(userId),
+                    dedupMode.name());
+        }
         // 2.判断结果是否为 0
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                String.valueOf(orderId));
+        int code = ((Long) Objects.requireNonNull(result).get(0)).intValue();
         // 2.1 不为0， 没有购买资格
-        if (Objects.requireNonNull(result).intValue() != 0){
-            return Result.fail(result.intValue() == 1 ? "库存不足" : "不能重复下单");
+        if (code != 0){
+            if (code == 1) {
+                // 售罄, 登记并广播到所有节点; 租约模式由 SeckillStockLeaser 判断是否真正售罄
+                if (!leased) {
+                    soldOutRegistry.markSoldOut(voucherId);
+                }
+                return Result.fail("库存不足");
+            }
+            if (code == 3) {
+                return Result.fail("系统繁忙, 请重试");
+            }
+            return Result.fail("不能重复下单");
         }
         // 用另一个独立线程去消费消息队列里的信息
         // 3.返回订单id
+        long orderId = RedisIdWorker.compose(timestamp, (Long) result.get(1));
         return Result.ok(orderId);
     }
 
+    /**
+     * 分片库存下单: 先从用户的主分片(扣完时依次从兄弟分片)扣减一个库存, 再执行只做一人一单的脚本.
+     * 重复下单时把库存退回原分片, 返回值与 seckill.lua 相同
+     */
+    private List<?> seckillWithShards(Long voucherId, Long userId, int shards, LocalDateTime now, long timestamp) {
+        // 1.扣减分片库存, 所有分片都扣完才算售罄
+        int shard = stockShards.take(voucherId, userId, shards);
+        if (shard < 0) {
+            return Collections.singletonList(1L);
+        }
+        // 2.一人一单, 库存已扣减; 脚本执行异常时不退回库存, 结果未知时宁可少卖也不超卖
+        List<?> result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Collections.emptyList(),
+                voucherId.toString(),
+                userId.toString(),
+                RedisIdWorker.counterKey("order", now),
+                String.valueOf(timestamp),
+                RedisConstants.SECKILL_ORDER_STREAM_KEY + partitionOf(userId),
+                dedupMode.name(),
+                "1");
+        if (((Long) Objects.requireNonNull(result).get(0)).intValue() != 0) {
+            // 3.重复下单, 库存退回原分片
+            stockShards.giveBack(voucherId, shard);
+        }
+        return result;
+    }
+
+    /**
+     * 租约模式下单: 先在本地租约中扣减库存, 通过后执行只做一人一单的脚本.
+     * 返回值与 seckill.lua 相同, 另有 {3} 表示租约连续失效
+     */
+    private List<?> seckillWithLease(Long voucherId, Long userId, LocalDateTime now, long timestamp) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            // 1.本地判断库存, 本地用完时续租
+            SeckillStockLeaser.Lease lease = stockLeaser.acquire(voucherId);
+            if (lease == null) {
+                return Collections.singletonList(1L);
+            }
+            // 2.一人一单并扣减租约在 Redis 中的剩余数
+            List<?> result = stringRedisTemplate.execute(
+                    SECKILL_LEASED_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    userId.toString(),
+                    RedisIdWorker.counterKey("order", now),
+                    String.valueOf(timestamp),
+                    RedisConstants.SECKILL_ORDER_STREAM_KEY + partitionOf(userId),
+                    lease.getId(),
+                    dedupMode.name());
+            int code = ((Long) Objects.requireNonNull(result).get(0)).intValue();
+            if (code == 2) {
+                // 重复下单, 许可退回本地
+                stockLeaser.release(lease);
+            }
+            if (code != 3) {
+                return result;
+            }
+            // 3.租约已到期归还或被回收, 换一个租约重试
+            stockLeaser.discard(lease);
+        }
+        return Collections.singletonList(3L);
+    }
+
+    /**
+     * 消息转订单. 新消息携带 ts、seq, 旧消息直接携带 id
+     */
+    private static VoucherOrder toVoucherOrder(Map<Object, Object> values) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        if (voucherOrder.getId() == null) {
+            long timestamp = Long.parseLong(values.get("ts").toString());
+            long seq = Long.parseLong(values.get("seq").toString());
+            voucherOrder.setId(RedisIdWorker.compose(timestamp, seq));
+        }
+        return voucherOrder;
+    }
+
 /*    @Override
     public Result seckillVoucher(Long voucherId) {
         // 1.查询优惠券id
@@ -201,80 +835,30 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }*/
 
-//    @Transactional
-//    @Deprecated
-//    public Result createVoucherOrder(Long voucherId, Long userId) {
-//        // 5.一人一单
-//        // 5.1 查询订单, 一个人、一个优惠券id 只能对应一个不为已退款的订单
-//        Integer count = query().eq("user_id", userId)
-//                .eq("voucher_id", voucherId)
-//                .ne("status", 6)
-//                .count();
-//        // 5.2 判断是否存在
-//        if (count > 0) {
-//            // 用户已经购买并且支付过了
-//            return Result.fail("用户已经购买过一次");
-//        }
-//        // 6.扣减库存
-//        boolean isSuccess = seckillVoucherService.update()
-//                .setSql("stock = stock - 1") // set stock = stock - 1
-//                .eq("voucher_id", voucherId)
-//                .gt("stock", 0)
-//                .update();
-//        if (!isSuccess) {
-//            return Result.fail("库存不足!");
-//        }
-//        // 6. 扣减成功，创建优惠券订单
-//        VoucherOrder voucherOrder = new VoucherOrder();
-//        // 6.1 订单id
-//        long orderId = redisIdWorker.nextId("order");
-//        voucherOrder.setId(orderId);
-//        // 6.2 用户id
-//        voucherOrder.setUserId(userId);
-//        // 6.3 代金券id
-//        voucherOrder.setVoucherId(voucherId);
-//        voucherOrder.setStatus(1);
-//        // 6.4 入库
-//        save(voucherOrder);
-//        // 7. 返回订单id
-//        return Result.ok(orderId);
-//    }
-
-    private void handleVoucherOrder(VoucherOrder voucherOrder){
-        // 1.获取队列中的订单信息
-        Long userId = voucherOrder.getUserId();
-        Long orderId = voucherOrder.getId();
-        // 2.创建订单
-        // 3.创建redis锁对象
-        RLock lock = redissonClient.getLock(RedisConstants.LOCK_ORDER_KEY + userId);
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            log.error("不允许重复下单, 用户Id: {}, orderId: {}", userId, orderId);
-        }
-        // 4.判断是否获取锁成功
-        try {
-            // 获取代理对象
-//            proxy.createVoucherOrder(voucherOrder);
-            voucherOrderService.createVoucherOrder(voucherOrder);
-        } finally {
-            // 释放锁
-            lock.unlock();
-        }
+    private OrderResultDTO handleVoucherOrder(VoucherOrder voucherOrder){
+        // 同一用户的订单只会进入同一个分区, 而每个分区只有一个消费者, 无需再加一人一单的锁
+        return voucherOrderService.createVoucherOrder(voucherOrder);
     }
 
     @Transactional
     @Override
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public OrderResultDTO createVoucherOrder(VoucherOrder voucherOrder) {
         // 6.1 获取优惠券id、订单id、用户id
         Long voucherId = voucherOrder.getVoucherId();
         Long userId = voucherOrder.getUserId();
         // 6.2 一人一单, 查询订单是否存在
-        Integer count = query().eq("user_id", userId)
+        List<VoucherOrder> existing = query().select("id")
+                .eq("user_id", userId)
                 .eq("voucher_id", voucherId)
-                .count();
+                .list();
 
-        if (count > 0){
+        if (!existing.isEmpty()){
+            // 同一订单重复消费(例如通知结果失败后重试), 已经入库
+            if (existing.stream().anyMatch(order -> voucherOrder.getId().equals(order.getId()))) {
+                return OrderResultDTO.success(voucherOrder);
+            }
             log.error("此用户:{} 已经购买过一次了", userId);
+            return OrderResultDTO.fail(voucherOrder, "不能重复下单");
         }
         // 扣减库存
         boolean success = seckillVoucherService.update()
@@ -284,11 +868,94 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!success){
             log.error("库存不足");
-            return;
+            return OrderResultDTO.fail(voucherOrder, "库存不足");
         }
         // 创建订单
         voucherOrder.setStatus(1);
         // 6.4 入库
         save(voucherOrder);
+        return OrderResultDTO.success(voucherOrder);
+    }
+
+    @Transactional
+    @Override
+    public List<OrderResultDTO> createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        // 1.按优惠券分组
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        List<OrderResultDTO> results = new ArrayList<>(voucherOrders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+            // 2.一人一单, 一次查询出本批用户中已经下过单的, userId -> 订单id
+            Set<Long> userIds = orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+            Map<Long, Long> bought = query().select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .in("user_id", userIds)
+                    .list()
+                    .stream()
+                    .collect(Collectors.toMap(VoucherOrder::getUserId, VoucherOrder::getId, (a, b) -> a));
+            List<VoucherOrder> valid = new ArrayList<>(orders.size());
+            for (VoucherOrder order : orders) {
+                // putIfAbsent 返回非空说明已购买过或本批内重复
+                Long boughtOrderId = bought.putIfAbsent(order.getUserId(), order.getId());
+                if (boughtOrderId != null) {
+                    if (boughtOrderId.equals(order.getId())) {
+                        // 同一订单重复消费, 已经入库
+                        results.add(OrderResultDTO.success(order));
+                        continue;
+                    }
+                    log.error("此用户:{} 已经购买过一次了", order.getUserId());
+                    results.add(OrderResultDTO.fail(order, "不能重复下单"));
+                    continue;
+                }
+                valid.add(order);
+            }
+            if (valid.isEmpty()) {
+                continue;
+            }
+            // 3.聚合扣减库存 stock = stock - k
+            int k = valid.size();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + k)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", k)
+                    .update();
+            if (!success) {
+                // 3.1 库存不够整批扣减, 退化为逐单扣减, 扣不动的订单丢弃
+                List<VoucherOrder> deducted = deductOneByOne(voucherId, valid);
+                valid.subList(deducted.size(), valid.size())
+                        .forEach(order -> results.add(OrderResultDTO.fail(order, "库存不足")));
+                valid = deducted;
+            }
+            valid.forEach(order -> {
+                order.setStatus(1);
+                results.add(OrderResultDTO.success(order));
+            });
+            toSave.addAll(valid);
+        }
+        // 4.多行插入
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+        }
+        return results;
+    }
+
+    private List<VoucherOrder> deductOneByOne(Long voucherId, List<VoucherOrder> orders) {
+        List<VoucherOrder> deducted = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - 1")
+                    .eq("voucher_id", voucherId)
+                    .gt("stock", 0)
+                    .update();
+            if (!success) {
+                log.error("库存不足, 优惠券id: {}, 丢弃订单数: {}", voucherId, orders.size() - deducted.size());
+                break;
+            }
+            deducted.add(order);
+        }
+        return deducted;
     }
 }
@@ -0,0 +1,266 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编解码器. 注册了 BinarySchema 的类型按字段顺序写成二进制,
+ * 其它类型仍然使用 JSON; 读取时根据首字节区分, 历史 JSON 数据可以继续读取
+ *
+ * 格式: [MAGIC][KIND][...]
+ * KIND_VALUE:      [字段...]
+ * KIND_REDIS_DATA: [expireMillis 8字节][字段...]
+ * KIND_TIMED_REDIS_DATA: [expireMillis 8字节][rebuildMillis 变长][字段...]
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * JSON 的首字节只可能是 { [ " 或字母数字, 不会是 0xB7
+     */
+    public static final byte MAGIC = (byte) 0xB7;
+
+    public static final byte KIND_VALUE = 1;
+
+    public static final byte KIND_REDIS_DATA = 2;
+
+    public static final byte KIND_TIMED_REDIS_DATA = 3;
+
+    /**
+     * MAGIC、KIND 之后的偏移
+     */
+    public static final int HEADER_LENGTH = 2;
+
+    private final Map<Class<?>, BinarySchema<?>> schemas = new ConcurrentHashMap<>();
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    public BinaryCacheCodec() {
+        register(Shop.class, new ShopBinarySchema());
+    }
+
+    public <T> void register(Class<T> type, BinarySchema<T> schema) {
+        schemas.put(type, schema);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> BinarySchema<T> schemaOf(Class<T> type) {
+        return (BinarySchema<T>) schemas.get(type);
+    }
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value) {
+        BinarySchema<Object> schema = value == null ? null : (BinarySchema<Object>) schemaOf(value.getClass());
+        if (schema == null) {
+            return jsonCodec.encode(value);
+        }
+        Output out = new Output(128);
+        out.writeByte(MAGIC);
+        out.writeByte(KIND_VALUE);
+        schema.write(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        BinarySchema<T> schema = schemaOf(type);
+        if (schema == null || !isBinary(bytes)) {
+            // 迁移期间的 JSON 数据
+            return jsonCodec.decode(bytes, type);
+        }
+        return schema.read(new Input(bytes, HEADER_LENGTH));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encodeRedisData(RedisData redisData) {
+        Object data = redisData.getData();
+        BinarySchema<Object> schema = data == null ? null : (BinarySchema<Object>) schemaOf(data.getClass());
+        if (schema == null) {
+            return jsonCodec.encodeRedisData(redisData);
+        }
+        Output out = new Output(128);
+        out.writeByte(MAGIC);
+        Long rebuildMillis = redisData.getRebuildMillis();
+        out.writeByte(rebuildMillis == null ? KIND_REDIS_DATA : KIND_TIMED_REDIS_DATA);
+        out.writeLong(toEpochMilli(redisData.getExpireTime()));
+        if (rebuildMillis != null) {
+            out.writeVarLong(rebuildMillis);
+        }
+        schema.write(out, data);
+        return out.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeRedisData(byte[] bytes, Class<?> dataType) {
+        BinarySchema<?> schema = schemaOf(dataType);
+        if (schema == null || !isBinary(bytes)) {
+            return jsonCodec.decodeRedisData(bytes, dataType);
+        }
+        Input in = new Input(bytes, HEADER_LENGTH);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(ofEpochMilli(in.readLong()));
+        if (bytes[1] == KIND_TIMED_REDIS_DATA) {
+            redisData.setRebuildMillis(in.readVarLong());
+        }
+        redisData.setData(schema.read(in));
+        return redisData;
+    }
+
+    public static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static LocalDateTime ofEpochMilli(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
+    /**
+     * 可扩容的写缓冲
+     */
+    public static class Output {
+        private byte[] buf;
+        private int pos;
+
+        public Output(int initialCapacity) {
+            this.buf = new byte[initialCapacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        public void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        /**
+         * 定长 8 字节, 大端
+         */
+        public void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        /**
+         * zigzag 变长整数, 小数值只占 1~2 字节
+         */
+        public void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        /**
+         * 原样写入, 不带长度
+         */
+        public void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        public void writeDouble(double v) {
+            writeLong(Double.doubleToRawLongBits(v));
+        }
+
+        public void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        public void writeDateTime(LocalDateTime time) {
+            writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+            writeVarLong(time.getNano());
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * 读缓冲
+     */
+    public static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        public Input(byte[] buf, int offset) {
+            this.buf = buf;
+            this.pos = offset;
+        }
+
+        /**
+         * 下一个要读取的下标
+         */
+        public int position() {
+            return pos;
+        }
+
+        public int readByte() {
+            return buf[pos++] & 0xFF;
+        }
+
+        public long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        public long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        public double readDouble() {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        public String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        public LocalDateTime readDateTime() {
+            long epochSecond = readVarLong();
+            int nano = (int) readVarLong();
+            return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+        }
+    }
+}
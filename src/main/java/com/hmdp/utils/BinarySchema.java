@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+/**
+ * 某个类型的二进制结构, 按固定字段顺序读写
+ */
+public interface BinarySchema<T> {
+
+    void write(BinaryCacheCodec.Output out, T value);
+
+    T read(BinaryCacheCodec.Input in);
+}
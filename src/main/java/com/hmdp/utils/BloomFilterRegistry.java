@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_RELOAD_CHANNEL;
+
+/**
+ * 各实体的布隆过滤器. 新增 id 时写入 Redis 位图并广播, 其他节点只更新本地镜像;
+ * 全量重建后广播重新加载
+ */
+@Slf4j
+@Component
+public class BloomFilterRegistry implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+    public static final String USER = "user";
+    public static final String VOUCHER = "voucher";
+
+    private final Map<String, RedisBloomFilter> filters = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final Environment environment;
+
+    /**
+     * 误判率
+     */
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    /**
+     * 预计元素个数, 可用 hmdp.bloom.{name}.expected-insertions 单独覆盖
+     */
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    public BloomFilterRegistry(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                               Environment environment) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, Arrays.asList(
+                new ChannelTopic(BLOOM_ADD_CHANNEL), new ChannelTopic(BLOOM_RELOAD_CHANNEL)));
+    }
+
+    /**
+     * 获取过滤器, 第一次获取时按配置创建
+     */
+    public RedisBloomFilter get(String name) {
+        return filters.computeIfAbsent(name, n -> new RedisBloomFilter(n,
+                environment.getProperty("hmdp.bloom." + n + ".expected-insertions", Long.class, expectedInsertions),
+                fpp, stringRedisTemplate));
+    }
+
+    public Collection<RedisBloomFilter> all() {
+        return filters.values();
+    }
+
+    /**
+     * 返回 false 表示一定不存在
+     */
+    public boolean mightContain(String name, Object id) {
+        RedisBloomFilter filter = filters.get(name);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增 id, 并通知其他节点更新本地镜像
+     */
+    public void put(String name, Object id) {
+        if (id == null) {
+            return;
+        }
+        get(name).put(id);
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 通知所有节点从 Redis 重新加载位图
+     */
+    public void publishReload(String name) {
+        stringRedisTemplate.convertAndSend(BLOOM_RELOAD_CHANNEL, name);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (BLOOM_RELOAD_CHANNEL.equals(channel)) {
+            get(body).load();
+            return;
+        }
+        int index = body.indexOf(':');
+        if (index <= 0) {
+            log.warn("非法的布隆过滤器消息: {}", body);
+            return;
+        }
+        // 发布者已写过 Redis, 这里只更新本地镜像
+        get(body.substring(0, index)).putLocal(body.substring(index + 1));
+    }
+}
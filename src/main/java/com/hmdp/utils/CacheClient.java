@@ -1,46 +1,884 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
 
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    /**
+     * 本地缓存中代表"数据库中不存在"的空值
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * Redis 中代表"数据库中不存在"的空值
+     */
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    /**
+     * 逻辑过期数据的 hash 字段: 过期时间、数据
+     */
+    private static final byte[] FIELD_EXPIRE = "e".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FIELD_DATA = "d".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 带版本的写入脚本的写入格式
+     */
+    private static final byte[] MODE_STRING = "string".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MODE_HASH = "hash".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MODE_EXTEND = "extend".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MODE_FIELD = "field".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 分桶存储的 key: 前缀 + b: + 桶号
+     */
+    private static final String BUCKET_INFIX = "b:";
+
+    /**
+     * 不检查版本, 用于不是回源得到的数据
+     */
+    private static final long NO_VERSION = -1;
+
+    private static final DefaultRedisScript<Long> CACHE_SET_SCRIPT;
+    private static final byte[] CACHE_SET_SCRIPT_BYTES;
+    static {
+        CACHE_SET_SCRIPT = new DefaultRedisScript<>();
+        CACHE_SET_SCRIPT.setLocation(new ClassPathResource("cache_set.lua"));
+        CACHE_SET_SCRIPT.setResultType(Long.class);
+        CACHE_SET_SCRIPT_BYTES = CACHE_SET_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final CacheCodec codec;
+
+    private final MeterRegistry meterRegistry;
+
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CircuitBreakerRegistry circuitBreakers;
+
+    /**
+     * 本地缓存最大条数
+     */
+    @Value("${hmdp.cache.local.maximum-size:10000}")
+    private long localMaximumSize;
+
+    /**
+     * 本地缓存写入后的存活时间(秒)
+     */
+    @Value("${hmdp.cache.local.expire-seconds:10}")
+    private long localExpireSeconds;
+
+    /**
+     * 进程内缓存, 存放反序列化后的对象
+     */
+    private Cache<String, Object> localCache;
+
+    /**
+     * 热点 key 固定在本地的副本存活时间(秒), 与缓存层级无关, 所有前缀都生效
+     */
+    @Value("${hmdp.cache.hot-key.pin-seconds:3}")
+    private long pinSeconds;
+
+    /**
+     * 热点 key 的本地副本
+     */
+    private Cache<String, Object> pinnedCache;
+
+    /**
+     * 最后一次读到的数据保留时间(秒), 回源失败或熔断时返回
+     */
+    @Value("${hmdp.cache.stale.max-seconds:600}")
+    private long staleMaxSeconds;
+
+    /**
+     * 返回旧数据时延长的过期时间(秒), 期间其他请求直接读缓存, 不再回源
+     */
+    @Value("${hmdp.cache.stale.extend-seconds:30}")
+    private long staleExtendSeconds;
+
+    /**
+     * 最后一次读到的数据, 更新时不清除, 数据库不可用时宁可返回旧数据
+     */
+    private Cache<String, Object> staleCache;
+
+    /**
+     * 每个 key 前缀使用的缓存层级, 未配置的前缀只用 Redis
+     */
+    private final Map<String, CacheLevel> cacheLevels = new ConcurrentHashMap<>();
+
+    /**
+     * 可能使用分桶存储的 key 前缀, 失效时同时删除桶中的字段
+     */
+    private final Set<String> bucketedPrefixes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 由某个 key 前缀的数据派生出的缓存前缀(例如序列化好的响应), 数据异步刷新后失效派生的缓存
+     */
+    private final Map<String, Set<String>> dependentPrefixes = new ConcurrentHashMap<>();
+
+    /**
+     * 每个桶的条数, 应小于 Redis 的 hash-max-ziplist-entries, 保持紧凑编码
+     */
+    @Value("${hmdp.cache.bucket.size:100}")
+    private long bucketSize;
+
+    /**
+     * 每个 key 前缀对应的布隆过滤器, 一定不存在的 id 不访问 Redis 和数据库
+     */
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 正在回源的 key, 同一节点内并发的查询共享一个结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 获取互斥锁失败后的最短、最长退避时间(毫秒)
+     */
+    private static final long MUTEX_MIN_BACKOFF_MILLIS = 20;
+    private static final long MUTEX_MAX_BACKOFF_MILLIS = 200;
+
+    /**
+     * 等待互斥锁的最长时间(毫秒), 超过后不再等待
+     */
+    @Value("${hmdp.cache.mutex.max-wait-millis:3000}")
+    private long mutexMaxWaitMillis;
+
+    /**
+     * 提前刷新系数 beta, 大于1时更早刷新
+     */
+    @Value("${hmdp.cache.xfetch.beta:1.0}")
+    private double xfetchBeta;
+
+    /**
+     * 第二次失效距第一次的延迟(毫秒), 应大于从库同步延迟
+     */
+    @Value("${hmdp.cache.invalidate.delay-millis:1000}")
+    private long invalidateDelayMillis;
+
+    private final ScheduledExecutorService delayedInvalidator = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-delayed-invalidate");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                       CacheCodec codec, MeterRegistry meterRegistry, CacheRebuildScheduler rebuildScheduler,
+                       HotKeyDetector hotKeyDetector, CircuitBreakerRegistry circuitBreakers) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.codec = codec;
+        this.meterRegistry = meterRegistry;
+        this.rebuildScheduler = rebuildScheduler;
+        this.hotKeyDetector = hotKeyDetector;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    @PostConstruct
+    private void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
+                .build();
+        pinnedCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(pinSeconds, TimeUnit.SECONDS)
+                .build();
+        staleCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(staleMaxSeconds, TimeUnit.SECONDS)
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        try {
+            loadCacheSetScript();
+        } catch (Exception e) {
+            // 首次写入报 NOSCRIPT 时再加载
+            log.warn("预加载 cache_set.lua 失败, 原因: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        delayedInvalidator.shutdownNow();
+    }
+
+    /**
+     * 设置某个 key 前缀的缓存层级
+     */
+    public void setCacheLevel(String keyPrefix, CacheLevel level) {
+        cacheLevels.put(keyPrefix, level);
+    }
+
+    /**
+     * 未配置过时才设置, 供注解声明默认层级, 不覆盖启动时的显式配置
+     */
+    public void setCacheLevelIfAbsent(String keyPrefix, CacheLevel level) {
+        cacheLevels.putIfAbsent(keyPrefix, level);
+    }
+
+    private CacheLevel levelOf(String keyPrefix) {
+        return cacheLevels.getOrDefault(keyPrefix, CacheLevel.L2);
+    }
+
+    /**
+     * 声明某个 key 前缀可能使用分桶存储, 失效时同时删除桶中的字段
+     */
+    public void setBucketed(String keyPrefix) {
+        bucketedPrefixes.add(keyPrefix);
+    }
+
+    /**
+     * 声明 dependentPrefix + id 的缓存由 keyPrefix + id 的数据派生,
+     * 逻辑过期、提前刷新、分桶的异步刷新写入新数据后失效派生的缓存, 不必等它自身过期
+     */
+    public void addDependent(String keyPrefix, String dependentPrefix) {
+        dependentPrefixes.computeIfAbsent(keyPrefix, k -> ConcurrentHashMap.newKeySet()).add(dependentPrefix);
+    }
+
+    /**
+     * 异步刷新写入后调用, 递增派生缓存的版本并删除, 刷新前开始的派生缓存回源不会写入旧数据
+     */
+    private void invalidateDependents(String keyPrefix, Object id) {
+        Set<String> dependents = dependentPrefixes.get(keyPrefix);
+        if (dependents == null || dependents.isEmpty()) {
+            return;
+        }
+        List<String> keys = dependents.stream().map(prefix -> prefix + id).collect(Collectors.toList());
+        try {
+            invalidateNow(keys);
+        } catch (Exception e) {
+            // 派生缓存按自身的有效期过期
+            log.warn("失效派生缓存失败, keys: {}, 原因: {}", keys, e.getMessage());
+        }
+    }
+
+    /**
+     * 设置某个 key 前缀使用的布隆过滤器
+     */
+    public void setBloomFilter(String keyPrefix, RedisBloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
+    }
+
+    /**
+     * 返回 false 表示 id 一定不存在
+     */
+    private boolean mightExist(String keyPrefix, Object id) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter == null || bloomFilter.mightContain(id);
+    }
+
+    /**
+     * 批量查询时把一定不存在的 id 直接标记为空值
+     */
+    private <ID> void markAbsent(String keyPrefix, List<ID> idList, Object[] values) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null) {
+            return;
+        }
+        for (int i = 0; i < idList.size(); i++) {
+            if (!bloomFilter.mightContain(idList.get(i))) {
+                values[i] = NULL_VALUE;
+            }
+        }
+    }
+
+    public void set(String key, Object value, Long time, TimeUnit unit) {
+        setBytes(key, codec.encode(value), time, unit);
+    }
+
+    /**
+     * 逻辑过期数据存为 hash: e 为过期时间(毫秒), d 为数据, 判断是否过期时不需要解码数据.
+     * value 为 null 时 d 写空值, 按空值的有效期过期
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, NO_VERSION, value, time, unit);
+    }
+
+    private void setWithLogicalExpire(String key, long version, Object value, Long time, TimeUnit unit) {
+        // 设置逻辑过期
+        long expireMillis = logicalExpireMillis(value, time, unit);
+        byte[] data = value == null ? EMPTY_VALUE : codec.encode(value);
+        // 写入Redis
+        Long written = withCacheSetScript(() -> stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                setLogicalExpire(connection, key, version, data, expireMillis)));
+        logRejected(key, written);
+    }
+
+    private static long logicalExpireMillis(Object value, Long time, TimeUnit unit) {
+        return System.currentTimeMillis()
+                + (value == null ? TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL) : unit.toMillis(time));
+    }
+
+    private static Long setLogicalExpire(RedisConnection connection, String key, long version,
+                                         byte[] data, long expireMillis) {
+        return evalSet(connection, key, version, MODE_HASH, data, expireMillis);
+    }
+
+    /**
+     * 回源得到的数据按回源前读到的版本写入, 期间数据库被更新过(版本已递增)时拒绝写入
+     */
+    private void setVersioned(String key, long version, byte[] value, Long time, TimeUnit unit) {
+        Long written = withCacheSetScript(() -> stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                setVersioned(connection, key, version, value, time, unit)));
+        logRejected(key, written);
+    }
+
+    /**
+     * time 为 null 时不设置过期时间
+     */
+    private static Long setVersioned(RedisConnection connection, String key, long version,
+                                     byte[] value, Long time, TimeUnit unit) {
+        return evalSet(connection, key, version, MODE_STRING, value, time == null ? 0 : unit.toMillis(time));
+    }
+
+    private static Long evalSet(RedisConnection connection, String key, long version,
+                                byte[] mode, byte[] data, long millis) {
+        return connection.scriptingCommands().evalSha(CACHE_SET_SCRIPT.getSha1(), ReturnType.INTEGER, 2,
+                toBytes(key), toBytes(versionKey(key)),
+                toBytes(String.valueOf(version)), mode, data, RedisData.encodeExpireMillis(millis));
+    }
+
+    /**
+     * cache_set.lua 按 SHA 调用, 不在每次写入(尤其是 pipeline 中的批量写入)时发送脚本内容.
+     * Redis 重启或 SCRIPT FLUSH 后报 NOSCRIPT 时重新加载并重试一次, 写入带版本检查, 整体重试不会写入旧数据
+     */
+    private <T> T withCacheSetScript(Supplier<T> action) {
+        try {
+            return action.get();
+        } catch (DataAccessException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            loadCacheSetScript();
+            return action.get();
+        }
+    }
+
+    private void loadCacheSetScript() {
+        stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(CACHE_SET_SCRIPT_BYTES));
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void logRejected(String key, Long written) {
+        if (written != null && written == 0) {
+            log.warn("回源期间数据已更新, 放弃写入旧数据, key: {}", key);
+        }
+    }
+
+    /**
+     * pipeline 中每个 key 一次写入, 结果与 keys 一一对应
+     */
+    private static void logRejected(List<String> keys, List<Object> results) {
+        for (int i = 0; i < keys.size() && i < results.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof Long) {
+                logRejected(keys.get(i), (Long) result);
+            }
+        }
+    }
+
+    /**
+     * 延长逻辑过期时间, key 不存在时不写入
+     */
+    private static void extendLogicalExpire(RedisConnection connection, String key, long expireMillis) {
+        evalSet(connection, key, NO_VERSION, MODE_EXTEND, EMPTY_VALUE, expireMillis);
+    }
+
+    /**
+     * 写入分桶存储的一个字段, 版本检查使用单个 key 的版本
+     */
+    private static Long setBucketEntry(RedisConnection connection, String bucketKey, String key, String field,
+                                       long version, byte[] data, long expireMillis) {
+        return connection.scriptingCommands().evalSha(CACHE_SET_SCRIPT.getSha1(), ReturnType.INTEGER, 2,
+                toBytes(bucketKey), toBytes(versionKey(key)),
+                toBytes(String.valueOf(version)), MODE_FIELD, RedisData.encodeEntry(expireMillis, data), toBytes(field));
+    }
+
+    private void setBucketEntry(String bucketKey, String key, String field, long version, byte[] data, long ttlMillis) {
+        long expireMillis = System.currentTimeMillis() + ttlMillis;
+        Long written = withCacheSetScript(() -> stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                setBucketEntry(connection, bucketKey, key, field, version, data, expireMillis)));
+        logRejected(key, written);
+    }
+
+    private String bucketKey(String keyPrefix, Object id) {
+        return keyPrefix + BUCKET_INFIX + parseBucketId(id) / bucketSize;
+    }
+
+    private static long parseBucketId(Object id) {
+        try {
+            return Long.parseLong(id.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("分桶存储只支持数字id: " + id);
+        }
+    }
+
+    private static String versionKey(String key) {
+        return CACHE_VERSION_KEY + key;
+    }
+
+    /**
+     * 回源前读取版本, 没有版本记录时为 0
+     */
+    private long currentVersion(String key) {
+        String version = stringRedisTemplate.opsForValue().get(versionKey(key));
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    private long[] currentVersions(List<String> keys) {
+        List<String> found = stringRedisTemplate.opsForValue().multiGet(
+                keys.stream().map(CacheClient::versionKey).collect(Collectors.toList()));
+        long[] versions = new long[keys.size()];
+        for (int i = 0; i < versions.length; i++) {
+            String version = found == null ? null : found.get(i);
+            versions[i] = version == null ? 0 : Long.parseLong(version);
+        }
+        return versions;
+    }
+
+    /**
+     * 一次 HMGET 读取过期时间和原始数据, 不存在时返回 null, 数据为空值时 d 为空数组.
+     * 迁移前的 String 结构按旧格式解码后转换为同样的两个字段
+     */
+    private List<byte[]> getLogicalExpire(String key, Class<?> type) {
+        try {
+            List<byte[]> fields = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.hashCommands().hMGet(toBytes(key), FIELD_EXPIRE, FIELD_DATA));
+            return fields == null || fields.get(0) == null ? null : fields;
+        } catch (RedisSystemException e) {
+            if (!isWrongType(e)) {
+                throw e;
+            }
+            byte[] legacy = getBytes(key);
+            if (legacy == null || legacy.length == 0) {
+                return null;
+            }
+            RedisData redisData = codec.decodeRedisData(legacy, type);
+            return Arrays.asList(
+                    RedisData.encodeExpireMillis(BinaryCacheCodec.toEpochMilli(redisData.getExpireTime())),
+                    redisData.getData() == null ? EMPTY_VALUE : codec.encode(redisData.getData()));
+        }
+    }
+
+    /**
+     * 批量读取逻辑过期数据, 一次 pipeline 执行多个 HMGET
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<byte[]>> multiGetLogicalExpire(List<String> keys, Class<?> type) {
+        try {
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.hashCommands().hMGet(toBytes(key), FIELD_EXPIRE, FIELD_DATA);
+                }
+                return null;
+            }, null);
+            List<List<byte[]>> entries = new ArrayList<>(keys.size());
+            for (Object result : results) {
+                List<byte[]> fields = (List<byte[]>) result;
+                entries.add(fields == null || fields.get(0) == null ? null : fields);
+            }
+            return entries;
+        } catch (RedisSystemException e) {
+            // 存在迁移前的 String 结构, 逐个读取
+            return keys.stream().map(key -> getLogicalExpire(key, type)).collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isWrongType(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().startsWith("WRONGTYPE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] toBytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * key 是其他结构(例如切换为逻辑过期后的 hash)时按未命中处理, 写入时 SET 会覆盖
+     */
+    private byte[] getBytes(String key) {
+        try {
+            return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.stringCommands().get(toBytes(key)));
+        } catch (RedisSystemException e) {
+            if (isWrongType(e)) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private List<byte[]> multiGetBytes(List<String> keys) {
+        byte[][] rawKeys = keys.stream().map(CacheClient::toBytes).toArray(byte[][]::new);
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(rawKeys));
+    }
+
+    private void setBytes(String key, byte[] value, Long time, TimeUnit unit) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            setBytes(connection, key, value, time, unit);
+            return null;
+        });
+    }
+
+    /**
+     * time 为 null 时不设置过期时间
+     */
+    private static void setBytes(RedisConnection connection, String key, byte[] value, Long time, TimeUnit unit) {
+        if (time == null) {
+            connection.stringCommands().set(toBytes(key), value);
+        } else {
+            connection.stringCommands().set(toBytes(key), value,
+                    Expiration.from(time, unit), RedisStringCommands.SetOption.upsert());
+        }
+    }
+
+    /**
+     * 删除缓存, 并通知所有节点清除本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存, 并通知所有节点清除本地缓存
+     */
+    public void delete(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        keys.forEach(this::invalidateLocal);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] channel = toBytes(CACHE_INVALIDATE_CHANNEL);
+            keys.forEach(key -> connection.publish(channel, toBytes(key)));
+            return null;
+        });
+    }
+
+    /**
+     * 数据库更新后失效缓存:
+     * 1. 递增每个 key 的版本, 更新前开始的回源写回时会被拒绝
+     * 2. 删除缓存, 并通知所有节点清除本地缓存
+     * 在事务中调用时推迟到提交之后执行, 并在 invalidateDelayMillis 后再执行一次,
+     * 清除从库同步延迟期间读到旧数据写入的缓存
+     */
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateTwice(keys);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidateTwice(keys);
+            }
+        });
+    }
+
+    private void invalidateTwice(Collection<String> keys) {
+        try {
+            invalidateNow(keys);
+        } catch (Exception e) {
+            // 数据库已提交, 不影响本次更新的结果, 由延迟失效重试
+            log.error("缓存失效失败, keys: {}", keys, e);
+        }
+        delayedInvalidator.schedule(() -> {
+            try {
+                invalidateNow(keys);
+            } catch (Exception e) {
+                log.error("延迟失效缓存失败, keys: {}", keys, e);
+            }
+        }, invalidateDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void invalidateNow(Collection<String> keys) {
+        keys.forEach(this::invalidateLocal);
+        long versionTtlSeconds = TimeUnit.MINUTES.toSeconds(CACHE_VERSION_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] channel = toBytes(CACHE_INVALIDATE_CHANNEL);
+            for (String key : keys) {
+                // 先递增版本再删除, 删除之后不会再写入旧数据
+                byte[] versionKey = toBytes(versionKey(key));
+                connection.stringCommands().incr(versionKey);
+                connection.keyCommands().expire(versionKey, versionTtlSeconds);
+                connection.keyCommands().del(toBytes(key));
+                deleteBucketEntry(connection, key);
+                connection.publish(channel, toBytes(key));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * key 属于分桶存储的前缀时, 删除桶中对应的字段
+     */
+    private void deleteBucketEntry(RedisConnection connection, String key) {
+        for (String prefix : bucketedPrefixes) {
+            String id = key.substring(Math.min(prefix.length(), key.length()));
+            if (key.startsWith(prefix) && !id.isEmpty() && id.chars().allMatch(Character::isDigit)) {
+                connection.hashCommands().hDel(toBytes(bucketKey(prefix, id)), toBytes(id));
+            }
+        }
+    }
+
+    /**
+     * 批量写入预热数据, 一次 pipeline 提交, 写入格式与查询策略一致.
+     * 与回源重建一样先读版本再查数据库, 预热期间被更新的数据不会写入旧值
+     *
+     * @param loader 批量查询数据库, 返回 id -> 数据, 不存在的 id 不放入结果
+     */
+    public <R, ID> void preload(CacheStrategy strategy, String keyPrefix, Collection<ID> ids,
+                                Function<Collection<ID>, Map<ID, R>> loader, Long time, TimeUnit unit) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<ID> idList = new ArrayList<>(ids);
+        List<String> keys = idList.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        // 1.先读版本, 再查数据库
+        long[] versions = currentVersions(keys);
+        Map<ID, R> values = loader.apply(idList);
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        // 2.一次 pipeline 写入
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(time);
+        List<String> written = new ArrayList<>(values.size());
+        List<Object> results = withCacheSetScript(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            written.clear();
+            for (int i = 0; i < idList.size(); i++) {
+                R value = values.get(idList.get(i));
+                if (value == null) {
+                    continue;
+                }
+                String key = keys.get(i);
+                written.add(key);
+                switch (strategy) {
+                    case BUCKETED:
+                        setBucketEntry(connection, bucketKey(keyPrefix, idList.get(i)), key,
+                                idList.get(i).toString(), versions[i], codec.encode(value), expireMillis);
+                        break;
+                    case LOGICAL_EXPIRE:
+                        setLogicalExpire(connection, key, versions[i], codec.encode(value), expireMillis);
+                        break;
+                    case EARLY_REFRESH:
+                        RedisData redisData = new RedisData();
+                        redisData.setData(value);
+                        redisData.setExpireTime(BinaryCacheCodec.ofEpochMilli(expireMillis));
+                        setVersioned(connection, key, versions[i], codec.encodeRedisData(redisData), time, unit);
+                        break;
+                    default:
+                        setVersioned(connection, key, versions[i], codec.encode(value), time, unit);
+                }
+            }
+            return null;
+        }));
+        logRejected(written, results);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void invalidateLocal(String key) {
+        localCache.invalidate(key);
+        pinnedCache.invalidate(key);
+    }
+
+    /**
+     * 只用本地缓存: 未命中时查数据库, Caffeine 保证同一个 key 只加载一次
+     */
+    private <R, ID> R queryLocalOnly(String keyPrefix, String key, ID id, Function<ID, R> dbFallback) {
+        return queryLocalOnly(keyPrefix, key, id, dbFallback, true);
+    }
+
+    /**
+     * cacheNull 为 false 时不存在的数据不缓存, 下次查询重新回源
+     */
+    @SuppressWarnings("unchecked")
+    private <R, ID> R queryLocalOnly(String keyPrefix, String key, ID id, Function<ID, R> dbFallback,
+                                     boolean cacheNull) {
+        Object value;
+        try {
+            value = localCache.get(key, k -> {
+                R r = loadFromDb(keyPrefix, key, () -> dbFallback.apply(id));
+                if (r == null) {
+                    // 返回 null 时 Caffeine 不保存
+                    return cacheNull ? NULL_VALUE : null;
+                }
+                staleCache.put(key, r);
+                return r;
+            });
+        } catch (RuntimeException e) {
+            value = staleOrThrow(keyPrefix, key, e);
+        }
+        return value == NULL_VALUE ? null : (R) value;
+    }
+
+    /**
+     * 查本地缓存, 返回 null 表示未命中, 返回 NULL_VALUE 表示命中空值.
+     * 本地未命中的请求将访问 Redis, 抽样统计热点, 热点 key 再查固定的本地副本
+     */
+    private Object getLocal(String key, CacheLevel level) {
+        Object value = level.useL1() ? localCache.getIfPresent(key) : null;
+        if (value != null) {
+            return value;
+        }
+        hotKeyDetector.recordAccess(key);
+        if (!hotKeyDetector.isHot(key)) {
+            return null;
+        }
+        value = pinnedCache.getIfPresent(key);
+        hotKeyDetector.recordHit(key, value != null);
+        return value;
+    }
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    private void putLocal(String key, Object value, CacheLevel level) {
+        Object local = value == null ? NULL_VALUE : value;
+        if (value != null) {
+            staleCache.put(key, value);
+        }
+        if (level.useL1()) {
+            localCache.put(key, local);
+        }
+        if (hotKeyDetector.isHot(key)) {
+            pinnedCache.put(key, local);
+        }
     }
 
-    public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+    /**
+     * 经过前缀并发上限和熔断器回源数据库, 有旧数据可返回时才在并发已满时快速失败
+     */
+    private <R> R loadFromDb(String keyPrefix, String key, Supplier<R> loader) {
+        return loadFromDb(keyPrefix, Collections.singletonList(key), loader);
     }
 
-    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+    private <R> R loadFromDb(String keyPrefix, List<String> keys, Supplier<R> loader) {
+        return rebuildScheduler.callWithLimit(keyPrefix, () -> circuitBreakers.call(keyPrefix, loader), hasStale(keys));
+    }
+
+    /**
+     * 每个 key 都有最后一次读到的数据时返回 true
+     */
+    private boolean hasStale(List<String> keys) {
+        return keys.stream().allMatch(key -> staleCache.getIfPresent(key) != null);
+    }
+
+    /**
+     * 回源失败或已熔断时取最后一次读到的数据, 没有时抛出原异常
+     */
+    private Object staleOrThrow(String keyPrefix, String key, RuntimeException e) {
+        Object stale = staleCache.getIfPresent(key);
+        if (stale == null) {
+            throw e;
+        }
+        log.warn("回源失败, 返回旧数据, key: {}, 原因: {}", key, e.getMessage());
+        Counter.builder("cache.stale.served")
+                .description("回源失败或熔断时返回旧数据的次数")
+                .tag("prefix", keyPrefix)
+                .register(meterRegistry)
+                .increment();
+        return stale;
+    }
+
+    /**
+     * 返回旧数据, 并以 staleExtendSeconds 的过期时间写回 Redis, 期间其他请求不再回源
+     *
+     * @param encoder 按该前缀的存储格式编码旧数据
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R serveStale(String keyPrefix, String key, long version, RuntimeException e,
+                             Function<Object, byte[]> encoder) {
+        Object stale = staleOrThrow(keyPrefix, key, e);
+        try {
+            setVersioned(key, version, encoder.apply(stale), staleExtendSeconds, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            log.error("旧数据写回失败, key: {}", key, ex);
+        }
+        return (R) stale;
     }
+
     // 防止缓存穿透式查询
 
     /**
@@ -55,130 +893,853 @@ public class CacheClient {
      * @param <ID> id范型
      * @return
      */
+    @SuppressWarnings("unchecked")
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        // 0.布隆过滤器判断一定不存在, 直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryLocalOnly(keyPrefix, key, id, dbFallback);
+        }
+        Object local = getLocal(key, level);
+        if (local != null) {
+            return local == NULL_VALUE ? null : (R) local;
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] value = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
+        if (value != null && value.length > 0) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+            R r = codec.decode(value, type);
+            putLocal(key, r, level);
+            return r;
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (value != null) {
             // 返回一个错误信息
+            putLocal(key, null, level);
             return null;
         }
 
-        // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        // 4.不存在，先读版本再根据id查询数据库, 受前缀并发上限约束
+        long version = currentVersion(key);
+        R r;
+        try {
+            r = loadFromDb(keyPrefix, key, () -> dbFallback.apply(id));
+        } catch (RuntimeException e) {
+            // 回源失败或已熔断, 返回旧数据
+            return serveStale(keyPrefix, key, version, e, codec::encode);
+        }
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setVersioned(key, version, EMPTY_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
             // 返回错误信息
             return null;
         }
-        // 6.存在，写入redis
-        this.set(key, r, time, unit);
+        // 6.存在，写入redis, 期间数据已更新则放弃写入
+        setVersioned(key, version, codec.encode(r), time, unit);
+        putLocal(key, r, level);
         return r;
     }
 
+    @SuppressWarnings("unchecked")
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在, 直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 0.1.查本地缓存, 本地只保存未过期的数据
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryLocalOnly(keyPrefix, key, id, dbFallback);
+        }
+        Object local = getLocal(key, level);
+        if (local != null) {
+            return local == NULL_VALUE ? null : (R) local;
+        }
+        // 1.从redis一次读取过期时间和原始数据
+        List<byte[]> fields = getLogicalExpire(key, type);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        if (fields == null) {
+            // 3.不存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        // 4.命中，只解析过期时间, 数据在返回前才解码
+        rebuildScheduler.recordAccess(key);
+        boolean fresh = RedisData.parseExpireMillis(fields.get(0)) > System.currentTimeMillis();
+        // d 为空说明数据库中不存在
+        R r = fields.get(1).length == 0 ? null : codec.decode(fields.get(1), type);
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
+        if (fresh) {
             // 5.1.未过期，直接返回店铺信息
+            putLocal(key, r, level);
             return r;
         }
         // 5.2.已过期，需要缓存重建
         // 6.缓存重建
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        String lockKey = lockKey(key);
         boolean isLock = tryLock(lockKey);
         // 6.2.判断是否获取锁成功
         if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.3.成功，提交到重建调度器，队列满或重复时释放锁
+            rebuildScheduler.submit(keyPrefix, key, () -> {
                 try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
+                    // 先读版本再查询数据库
+                    long version = currentVersion(key);
+                    long start = System.nanoTime();
+                    R newR = circuitBreakers.call(keyPrefix, () -> dbFallback.apply(id));
+                    recordRebuild(keyPrefix, CacheStrategy.LOGICAL_EXPIRE, System.nanoTime() - start);
+                    // 重建缓存, 期间数据已更新则放弃写入
+                    this.setWithLogicalExpire(key, version, newR, time, unit);
+                    invalidateDependents(keyPrefix, id);
                 } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    // 回源失败或已熔断, 延长旧数据的逻辑过期时间, 期间不再触发重建
+                    log.warn("缓存重建失败, 延长旧数据过期时间, key: {}, 原因: {}", key, e.getMessage());
+                    extendLogicalExpire(Collections.singletonList(key));
                 }finally {
                     // 释放锁
                     unlock(lockKey);
                 }
-            });
+            }, () -> unlock(lockKey));
         }
         // 6.4.返回过期的商铺信息
         return r;
     }
 
+    @SuppressWarnings("unchecked")
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在, 直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryLocalOnly(keyPrefix, key, id, dbFallback);
+        }
+        Object local = getLocal(key, level);
+        if (local != null) {
+            return local == NULL_VALUE ? null : (R) local;
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] value = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
+        if (value != null && value.length > 0) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            R r = codec.decode(value, type);
+            putLocal(key, r, level);
+            return r;
         }
         // 判断命中的是否是空值
-        if (shopJson != null) {
+        if (value != null) {
             // 返回一个错误信息
+            putLocal(key, null, level);
             return null;
         }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+        // 4.同一节点内只有一个线程回源, 其余线程等待它的结果
+        return singleFlight(key, () -> rebuildWithMutex(key, lockKey(key), level,
+                v -> codec.decode(v, type),
+                () -> {
+                    // 先读版本再根据id查询数据库
+                    long version = currentVersion(key);
+                    long start = System.nanoTime();
+                    R r;
+                    try {
+                        r = loadFromDb(keyPrefix, key, () -> dbFallback.apply(id));
+                    } catch (RuntimeException e) {
+                        // 回源失败或已熔断, 返回旧数据
+                        return serveStale(keyPrefix, key, version, e, codec::encode);
+                    }
+                    recordRebuild(keyPrefix, CacheStrategy.MUTEX, System.nanoTime() - start);
+                    // 不存在，将空值写入redis
+                    if (r == null) {
+                        setVersioned(key, version, EMPTY_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        return null;
+                    }
+                    // 存在，写入redis, 期间数据已更新则放弃写入
+                    setVersioned(key, version, codec.encode(r), time, unit);
+                    return r;
+                }));
+    }
+
+    /**
+     * 按重建耗时概率性提前刷新(XFetch):
+     * 每个读请求以 now - delta * beta * ln(rand) >= expire 判断是否提前刷新,
+     * delta 为上次重建耗时, 越接近过期、重建越慢, 提前刷新的概率越大.
+     * 数据的物理过期时间等于逻辑过期时间, 过期后按未命中同步重建, 不会返回过期数据
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在, 直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryLocalOnly(keyPrefix, key, id, dbFallback);
+        }
+        Object local = getLocal(key, level);
+        if (local != null) {
+            return local == NULL_VALUE ? null : (R) local;
+        }
+        // 1.从redis查询缓存
+        byte[] value = getBytes(key);
+        // 2.命中空值
+        if (value != null && value.length == 0) {
+            putLocal(key, null, level);
+            return null;
+        }
+        // 3.命中且未过期, 直接返回, 按概率决定是否提前刷新
+        String lockKey = lockKey(key);
+        if (value != null) {
+            rebuildScheduler.recordAccess(key);
+            RedisData redisData = codec.decodeRedisData(value, type);
+            long now = System.currentTimeMillis();
+            long expireMillis = BinaryCacheCodec.toEpochMilli(redisData.getExpireTime());
+            if (expireMillis > now) {
+                R r = (R) redisData.getData();
+                putLocal(key, r, level);
+                if (shouldRefreshEarly(redisData.getRebuildMillis(), expireMillis, now) && tryLock(lockKey)) {
+                    earlyRefreshCounter(keyPrefix).increment();
+                    rebuildScheduler.submit(keyPrefix, key, () -> {
+                        try {
+                            long version = currentVersion(key);
+                            putLocal(key, rebuildWithCost(keyPrefix, key, version, id, dbFallback, time, unit), level);
+                            invalidateDependents(keyPrefix, id);
+                        } catch (Exception e) {
+                            log.error("提前刷新缓存失败, key: {}", key, e);
+                        } finally {
+                            unlock(lockKey);
+                        }
+                    }, () -> unlock(lockKey));
+                }
+                return r;
+            }
+            // 已过期(例如逻辑过期策略写入的没有TTL的数据), 按未命中处理
+        }
+        // 4.未命中, 同一节点内合并为一次回源
+        return singleFlight(key, () -> rebuildWithMutex(key, lockKey, level,
+                v -> {
+                    RedisData redisData = codec.decodeRedisData(v, type);
+                    return redisData.getExpireTime().isAfter(LocalDateTime.now()) ? (R) redisData.getData() : null;
+                },
+                () -> {
+                    long version = currentVersion(key);
+                    try {
+                        return rebuildScheduler.callWithLimit(keyPrefix,
+                                () -> rebuildWithCost(keyPrefix, key, version, id, dbFallback, time, unit),
+                                hasStale(Collections.singletonList(key)));
+                    } catch (RuntimeException e) {
+                        // 回源失败或已熔断, 返回旧数据
+                        return serveStale(keyPrefix, key, version, e, stale -> {
+                            RedisData redisData = new RedisData();
+                            redisData.setData(stale);
+                            redisData.setExpireTime(LocalDateTime.now().plusSeconds(staleExtendSeconds));
+                            return codec.encodeRedisData(redisData);
+                        });
+                    }
+                }));
+    }
+
+    /**
+     * 缓存预先序列化好的响应字节, 命中时不做任何对象映射, 由调用方直接写给客户端.
+     * 同一节点内并发未命中合并为一次回源, 不存在时缓存空值
+     *
+     * @param loader 回源并序列化, 不存在时返回 null
+     */
+    public <ID> byte[] queryRaw(String keyPrefix, ID id, Function<ID, byte[]> loader, Long time, TimeUnit unit) {
+        return queryRaw(keyPrefix, id, loader, time, unit, true);
+    }
+
+    /**
+     * @param cacheNull loader 返回 null 时是否缓存空值, 为 false 时只缓存成功的响应, 下次查询重新回源
+     */
+    public <ID> byte[] queryRaw(String keyPrefix, ID id, Function<ID, byte[]> loader, Long time, TimeUnit unit,
+                                boolean cacheNull) {
+        // 0.布隆过滤器判断一定不存在, 直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryLocalOnly(keyPrefix, key, id, loader, cacheNull);
+        }
+        Object local = getLocal(key, level);
+        if (local != null) {
+            return local == NULL_VALUE ? null : (byte[]) local;
+        }
+        // 1.从redis查询, 字节原样返回
+        byte[] value = getBytes(key);
+        if (value != null) {
+            byte[] r = value.length > 0 ? value : null;
+            putLocal(key, r, level);
+            return r;
+        }
+        // 2.未命中, 同一节点内合并为一次回源
+        return singleFlight(key, () -> {
+            long version = currentVersion(key);
+            byte[] r;
+            try {
+                r = loadFromDb(keyPrefix, key, () -> loader.apply(id));
+            } catch (RuntimeException e) {
+                // 回源失败或已熔断, 返回旧数据
+                return serveStale(keyPrefix, key, version, e, stale -> (byte[]) stale);
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
             if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
+                if (cacheNull) {
+                    setVersioned(key, version, EMPTY_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    putLocal(key, null, level);
+                }
                 return null;
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
+            setVersioned(key, version, r, time, unit);
+            putLocal(key, r, level);
+            return r;
+        });
+    }
+
+    /**
+     * 分桶存储: 按 id / bucketSize 把多条数据放进同一个小 hash, 字段为 id,
+     * 每个 hash 保持 listpack(ziplist) 紧凑编码, 省去每个 key 自身的 dictEntry、redisObject 等开销.
+     * 字段值为 [逻辑过期时间 varlong][数据], 数据为空表示数据库中不存在:
+     * 未过期直接返回; 已过期先返回旧值再异步重建; 字段不存在时同步回源
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> R queryWithBucket(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在, 直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryLocalOnly(keyPrefix, key, id, dbFallback);
+        }
+        Object local = getLocal(key, level);
+        if (local != null) {
+            return local == NULL_VALUE ? null : (R) local;
+        }
+        // 1.从桶中读取字段
+        String bucketKey = bucketKey(keyPrefix, id);
+        String field = id.toString();
+        byte[] entry = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.hashCommands().hGet(toBytes(bucketKey), toBytes(field)));
+        // 2.字段不存在, 同一节点内合并为一次回源
+        if (entry == null) {
+            return singleFlight(key, () -> loadBucketEntry(keyPrefix, key, bucketKey, id, dbFallback, time, unit, level));
+        }
+        // 3.命中, 未过期直接返回
+        rebuildScheduler.recordAccess(key);
+        byte[] data = RedisData.entryData(entry);
+        R r = data.length == 0 ? null : codec.decode(data, type);
+        if (RedisData.parseEntryExpireMillis(entry) > System.currentTimeMillis()) {
+            putLocal(key, r, level);
+            return r;
+        }
+        // 4.已过期, 抢到锁的请求提交异步重建, 先返回旧值
+        String lockKey = lockKey(key);
+        if (tryLock(lockKey)) {
+            rebuildScheduler.submit(keyPrefix, key, () -> {
+                long version = currentVersion(key);
+                try {
+                    long start = System.nanoTime();
+                    R newR = circuitBreakers.call(keyPrefix, () -> dbFallback.apply(id));
+                    recordRebuild(keyPrefix, CacheStrategy.BUCKETED, System.nanoTime() - start);
+                    if (newR == null) {
+                        setBucketEntry(bucketKey, key, field, version, EMPTY_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                    } else {
+                        setBucketEntry(bucketKey, key, field, version, codec.encode(newR), unit.toMillis(time));
+                    }
+                    invalidateDependents(keyPrefix, id);
+                } catch (Exception e) {
+                    // 回源失败或已熔断, 延长旧数据的逻辑过期时间, 期间数据已更新则不写入
+                    log.warn("缓存重建失败, 延长旧数据过期时间, key: {}, 原因: {}", key, e.getMessage());
+                    setBucketEntry(bucketKey, key, field, version, data, TimeUnit.SECONDS.toMillis(staleExtendSeconds));
+                } finally {
+                    unlock(lockKey);
+                }
+            }, () -> unlock(lockKey));
+        }
+        return r;
+    }
+
+    /**
+     * 字段不存在时同步回源并写入桶中
+     */
+    @SuppressWarnings("unchecked")
+    private <R, ID> R loadBucketEntry(String keyPrefix, String key, String bucketKey, ID id,
+                                      Function<ID, R> dbFallback, Long time, TimeUnit unit, CacheLevel level) {
+        String field = id.toString();
+        long version = currentVersion(key);
+        R r;
+        try {
+            r = loadFromDb(keyPrefix, key, () -> dbFallback.apply(id));
+        } catch (RuntimeException e) {
+            // 回源失败或已熔断, 返回旧数据
+            R stale = (R) staleOrThrow(keyPrefix, key, e);
+            try {
+                setBucketEntry(bucketKey, key, field, version, codec.encode(stale),
+                        TimeUnit.SECONDS.toMillis(staleExtendSeconds));
+            } catch (Exception ex) {
+                log.error("旧数据写回失败, key: {}", key, ex);
+            }
+            return stale;
+        }
+        if (r == null) {
+            setBucketEntry(bucketKey, key, field, version, EMPTY_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+        } else {
+            setBucketEntry(bucketKey, key, field, version, codec.encode(r), unit.toMillis(time));
+        }
+        putLocal(key, r, level);
+        return r;
+    }
+
+    /**
+     * 按策略查询单个 key
+     */
+    public <R, ID> R query(CacheStrategy strategy,
+                           String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        switch (strategy) {
+            case PASS_THROUGH:
+                return queryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit);
+            case MUTEX:
+                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit);
+            case BUCKETED:
+                return queryWithBucket(keyPrefix, id, type, dbFallback, time, unit);
+            default:
+                return queryWithEarlyRefresh(keyPrefix, id, type, dbFallback, time, unit);
+        }
+    }
+
+    private boolean shouldRefreshEarly(Long rebuildMillis, long expireMillis, long now) {
+        if (rebuildMillis == null || rebuildMillis <= 0) {
+            return false;
+        }
+        // ln(rand) <= 0, 因此 gap >= 0
+        double gap = -rebuildMillis * xfetchBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return now + gap >= expireMillis;
+    }
+
+    /**
+     * 回源并记录耗时, 与数据一起写入, 物理过期时间等于逻辑过期时间
+     */
+    private <R, ID> R rebuildWithCost(String keyPrefix, String key, long version, ID id, Function<ID, R> dbFallback,
+                                      Long time, TimeUnit unit) {
+        long start = System.nanoTime();
+        R r = circuitBreakers.call(keyPrefix, () -> dbFallback.apply(id));
+        long costNanos = System.nanoTime() - start;
+        recordRebuild(keyPrefix, CacheStrategy.EARLY_REFRESH, costNanos);
+        if (r == null) {
+            setVersioned(key, version, EMPTY_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(r);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setRebuildMillis(Math.max(1, TimeUnit.NANOSECONDS.toMillis(costNanos)));
+        setVersioned(key, version, codec.encodeRedisData(redisData), time, unit);
+        return r;
+    }
+
+    private void recordRebuild(String keyPrefix, CacheStrategy strategy, long nanos) {
+        Timer.builder("cache.rebuild")
+                .description("缓存回源重建耗时")
+                .tag("prefix", keyPrefix)
+                .tag("strategy", strategy.name())
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter earlyRefreshCounter(String keyPrefix) {
+        return Counter.builder("cache.early.refresh")
+                .description("提前刷新次数")
+                .tag("prefix", keyPrefix)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 同一节点内同一个 key 只有一个线程执行 loader, 其余线程等待它的结果
+     */
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return awaitFlight(key, existing);
+        }
+        try {
+            R r = loader.get();
+            flight.complete(r == null ? NULL_VALUE : r);
+            return r;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * 等待本节点的 leader 线程重建完成
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R awaitFlight(String key, CompletableFuture<Object> flight) {
+        try {
+            Object value = flight.get(mutexMaxWaitMillis * 2, TimeUnit.MILLISECONDS);
+            return value == NULL_VALUE ? null : (R) value;
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("缓存重建失败, key: " + key, e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待缓存重建超时, key: " + key, e);
         }
-        // 8.返回
+    }
+
+    /**
+     * leader 线程获取跨节点互斥锁后回源. 获取失败时退避等待, 期间发现其他节点已写入缓存就直接返回;
+     * 超过 mutexMaxWaitMillis 仍未拿到锁则不再等待, 直接回源
+     *
+     * @param decoder 解码其他节点写入的缓存, 返回 null 表示不可用, 继续等待
+     * @param loader  回源并写入 Redis
+     */
+    private <R> R rebuildWithMutex(String key, String lockKey, CacheLevel level,
+                                   Function<byte[], R> decoder, Supplier<R> loader) {
+        // 4.1.获取互斥锁
+        long deadline = System.currentTimeMillis() + mutexMaxWaitMillis;
+        long backoff = MUTEX_MIN_BACKOFF_MILLIS;
+        boolean isLock = tryLock(lockKey);
+        // 4.2.获取失败, 退避后检查其他节点是否已经写入缓存
+        while (!isLock && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            backoff = Math.min(backoff * 2, MUTEX_MAX_BACKOFF_MILLIS);
+            Object cached = getCached(key, decoder);
+            if (cached != null) {
+                return fromCached(key, cached, level);
+            }
+            isLock = tryLock(lockKey);
+        }
+        if (!isLock) {
+            log.warn("等待互斥锁超时, 直接查询数据库, key: {}", key);
+        }
+        try {
+            // 4.3.获取锁成功, 再次检查缓存, 其他节点可能刚刚完成重建
+            if (isLock) {
+                Object cached = getCached(key, decoder);
+                if (cached != null) {
+                    return fromCached(key, cached, level);
+                }
+            }
+            // 4.4.回源并写入redis
+            R r = loader.get();
+            putLocal(key, r, level);
+            return r;
+        } finally {
+            // 5.释放锁
+            if (isLock) {
+                unlock(lockKey);
+            }
+        }
+    }
+
+    /**
+     * 读取可用的缓存, 返回 null 表示没有, NULL_VALUE 表示空值
+     */
+    private Object getCached(String key, Function<byte[], ?> decoder) {
+        byte[] value = getBytes(key);
+        if (value == null) {
+            return null;
+        }
+        return value.length == 0 ? NULL_VALUE : decoder.apply(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R fromCached(String key, Object cached, CacheLevel level) {
+        R r = cached == NULL_VALUE ? null : (R) cached;
+        putLocal(key, r, level);
         return r;
     }
 
+    /**
+     * 批量查询, 缓存穿透处理方式与 queryWithPassThrough 一致:
+     * 一次 MGET, 未命中的 id 一次性回源, 回写通过 pipeline 一次提交
+     *
+     * @param dbFallback 批量查询数据库, 返回 id -> 数据, 不存在的 id 不放入结果
+     * @return 与 ids 顺序一致的结果, 不存在的位置为 null
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        List<ID> idList = new ArrayList<>(ids);
+        List<String> keys = idList.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        Object[] values = new Object[idList.size()];
+        // 0.布隆过滤器判断一定不存在的 id 直接置空
+        markAbsent(keyPrefix, idList, values);
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            // 只用本地缓存, 未命中的一次回源
+            List<Integer> missIndexes = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                if (values[i] != null) {
+                    continue;
+                }
+                values[i] = localCache.getIfPresent(keys.get(i));
+                if (values[i] == null) {
+                    missIndexes.add(i);
+                }
+            }
+            loadMissesOrStale(keyPrefix, idList, keys, values, missIndexes, dbFallback, level, null);
+            return toResult(values);
+        }
+        // 1.查本地缓存, 剩下的一次 MGET
+        List<Integer> remoteIndexes = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (values[i] != null) {
+                continue;
+            }
+            values[i] = getLocal(keys.get(i), level);
+            if (values[i] == null) {
+                remoteIndexes.add(i);
+            }
+        }
+        if (remoteIndexes.isEmpty()) {
+            return toResult(values);
+        }
+        List<byte[]> raws = multiGetBytes(remoteIndexes.stream().map(keys::get).collect(Collectors.toList()));
+        // 2.区分命中、命中空值和未命中
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int j = 0; j < remoteIndexes.size(); j++) {
+            int i = remoteIndexes.get(j);
+            byte[] raw = raws == null ? null : raws.get(j);
+            if (raw != null && raw.length > 0) {
+                values[i] = codec.decode(raw, type);
+                putLocal(keys.get(i), values[i], level);
+            } else if (raw != null) {
+                values[i] = NULL_VALUE;
+                putLocal(keys.get(i), null, level);
+            } else {
+                missIndexes.add(i);
+            }
+        }
+        // 3.未命中的一次回源, 并通过 pipeline 写回 Redis
+        loadMissesOrStale(keyPrefix, idList, keys, values, missIndexes, dbFallback, level, (connection, key, version, r) -> {
+            if (r == null) {
+                setVersioned(connection, key, version, EMPTY_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            } else {
+                setVersioned(connection, key, version, codec.encode(r), time, unit);
+            }
+        });
+        return toResult(values);
+    }
+
+    /**
+     * 批量查询, 逻辑过期处理方式与 queryWithLogicalExpire 一致:
+     * 不存在的 key 直接返回 null, 已过期的先返回旧值, 抢到锁的部分一次性回源重建
+     *
+     * @return 与 ids 顺序一致的结果, 不存在的位置为 null
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> List<R> queryBatchWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        CacheLevel level = levelOf(keyPrefix);
+        if (level == CacheLevel.L1) {
+            return queryBatchWithPassThrough(keyPrefix, ids, type, dbFallback, time, unit);
+        }
+        List<ID> idList = new ArrayList<>(ids);
+        List<String> keys = idList.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        Object[] values = new Object[idList.size()];
+        // 0.布隆过滤器判断一定不存在的 id 直接置空
+        markAbsent(keyPrefix, idList, values);
+        // 1.查本地缓存, 剩下的一次 MGET
+        List<Integer> remoteIndexes = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (values[i] != null) {
+                continue;
+            }
+            values[i] = getLocal(keys.get(i), level);
+            if (values[i] == null) {
+                remoteIndexes.add(i);
+            }
+        }
+        if (remoteIndexes.isEmpty()) {
+            return toResult(values);
+        }
+        List<List<byte[]>> entries = multiGetLogicalExpire(
+                remoteIndexes.stream().map(keys::get).collect(Collectors.toList()), type);
+        // 2.判断是否过期
+        List<Integer> expiredIndexes = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int j = 0; j < remoteIndexes.size(); j++) {
+            int i = remoteIndexes.get(j);
+            List<byte[]> fields = entries.get(j);
+            if (fields == null) {
+                continue;
+            }
+            rebuildScheduler.recordAccess(keys.get(i));
+            values[i] = fields.get(1).length == 0 ? NULL_VALUE : codec.decode(fields.get(1), type);
+            if (RedisData.parseExpireMillis(fields.get(0)) > now) {
+                putLocal(keys.get(i), values[i], level);
+            } else {
+                expiredIndexes.add(i);
+            }
+        }
+        if (expiredIndexes.isEmpty()) {
+            return toResult(values);
+        }
+        // 3.已过期的一次 pipeline 抢锁
+        List<String> lockKeys = expiredIndexes.stream()
+                .map(i -> lockKey(keys.get(i)))
+                .collect(Collectors.toList());
+        List<Object> locked = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                lockKeys.forEach(lockKey -> stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", 10, TimeUnit.SECONDS));
+                return null;
+            }
+        });
+        List<Integer> rebuildIndexes = new ArrayList<>();
+        List<String> heldLocks = new ArrayList<>();
+        for (int j = 0; j < expiredIndexes.size(); j++) {
+            if (BooleanUtil.isTrue((Boolean) locked.get(j))) {
+                rebuildIndexes.add(expiredIndexes.get(j));
+                heldLocks.add(lockKeys.get(j));
+            }
+        }
+        // 4.抢到锁的部分提交到重建调度器一次性重建
+        if (!rebuildIndexes.isEmpty()) {
+            List<String> rebuildKeys = rebuildIndexes.stream().map(keys::get).collect(Collectors.toList());
+            rebuildScheduler.submit(keyPrefix, rebuildKeys, () -> {
+                try {
+                    Object[] rebuilt = new Object[idList.size()];
+                    loadMisses(idList, keys, rebuilt, rebuildIndexes,
+                            missIds -> circuitBreakers.call(keyPrefix, () -> dbFallback.apply(missIds)), CacheLevel.L2, (connection, key, version, r) ->
+                            setLogicalExpire(connection, key, version, r == null ? EMPTY_VALUE : codec.encode(r),
+                                    logicalExpireMillis(r, time, unit)));
+                } catch (Exception e) {
+                    // 回源失败或已熔断, 延长旧数据的逻辑过期时间, 期间不再触发重建
+                    log.warn("批量重建缓存失败, 延长旧数据过期时间, keyPrefix: {}, 原因: {}", keyPrefix, e.getMessage());
+                    extendLogicalExpire(rebuildKeys);
+                } finally {
+                    stringRedisTemplate.delete(heldLocks);
+                }
+            }, () -> stringRedisTemplate.delete(heldLocks));
+        }
+        // 5.返回过期的旧数据
+        return toResult(values);
+    }
+
+    /**
+     * 同步批量回源, 受 key 前缀的并发上限和熔断器约束;
+     * 回源失败或已熔断时未命中的 id 全部有旧数据才返回旧数据(只在本地, 不写回 Redis), 否则抛出原异常
+     */
+    private <R, ID> void loadMissesOrStale(String keyPrefix, List<ID> idList, List<String> keys, Object[] values,
+                                           List<Integer> missIndexes, Function<Collection<ID>, Map<ID, R>> dbFallback,
+                                           CacheLevel level, PipelineWriter writer) {
+        List<String> missKeys = missIndexes.stream().map(keys::get).collect(Collectors.toList());
+        try {
+            loadMisses(idList, keys, values, missIndexes,
+                    ids -> loadFromDb(keyPrefix, missKeys, () -> dbFallback.apply(ids)), level, writer);
+        } catch (RuntimeException e) {
+            for (int i : missIndexes) {
+                values[i] = staleOrThrow(keyPrefix, keys.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * 批量延长逻辑过期时间
+     */
+    private void extendLogicalExpire(List<String> keys) {
+        long expireMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(staleExtendSeconds);
+        withCacheSetScript(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> extendLogicalExpire(connection, key, expireMillis));
+            return null;
+        }));
+    }
+
+    /**
+     * 批量写回 Redis 的单条写操作, 在 pipeline 中执行, version 为回源前读到的版本
+     */
+    @FunctionalInterface
+    private interface PipelineWriter {
+        void write(RedisConnection connection, String key, long version, Object value);
+    }
+
+    /**
+     * 未命中的 id 先读版本再一次回源, 结果填入 values, 再通过 pipeline 写回
+     */
+    private <R, ID> void loadMisses(List<ID> idList, List<String> keys, Object[] values, List<Integer> missIndexes,
+                                    Function<Collection<ID>, Map<ID, R>> dbFallback, CacheLevel level,
+                                    PipelineWriter writer) {
+        if (missIndexes.isEmpty()) {
+            return;
+        }
+        List<ID> missIds = missIndexes.stream().map(idList::get).collect(Collectors.toList());
+        long[] versions = writer == null ? null
+                : currentVersions(missIndexes.stream().map(keys::get).collect(Collectors.toList()));
+        Map<ID, R> loaded = dbFallback.apply(missIds);
+        for (int i : missIndexes) {
+            R r = loaded == null ? null : loaded.get(idList.get(i));
+            values[i] = r == null ? NULL_VALUE : r;
+            putLocal(keys.get(i), r, level);
+        }
+        if (writer == null) {
+            return;
+        }
+        List<Object> results = withCacheSetScript(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int j = 0; j < missIndexes.size(); j++) {
+                int i = missIndexes.get(j);
+                writer.write(connection, keys.get(i), versions[j], values[i] == NULL_VALUE ? null : values[i]);
+            }
+            return null;
+        }));
+        logRejected(missIndexes.stream().map(keys::get).collect(Collectors.toList()), results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> toResult(Object[] values) {
+        List<R> result = new ArrayList<>(values.length);
+        for (Object value : values) {
+            result.add(value == null || value == NULL_VALUE ? null : (R) value);
+        }
+        return result;
+    }
+
+    /**
+     * 重建锁按缓存key区分, 不同前缀的缓存互不影响
+     */
+    private static String lockKey(String key) {
+        return LOCK_CACHE_KEY + key;
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器, CacheClient 通过它读写 Redis 中的值
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存值
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存值
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码带过期时间的数据(提前刷新策略, 以及迁移前的逻辑过期数据)
+     */
+    byte[] encodeRedisData(RedisData redisData);
+
+    /**
+     * 解码带过期时间的数据, 返回的 RedisData.data 已经是 dataType 类型
+     */
+    RedisData decodeRedisData(byte[] bytes, Class<?> dataType);
+}
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存层级, 按 key 前缀配置
+ */
+public enum CacheLevel {
+    /**
+     * 只用进程内缓存, 未命中直接查数据库
+     */
+    L1,
+    /**
+     * 只用 Redis
+     */
+    L2,
+    /**
+     * 先查进程内缓存, 再查 Redis
+     */
+    L1_L2;
+
+    public boolean useL1() {
+        return this != L2;
+    }
+}
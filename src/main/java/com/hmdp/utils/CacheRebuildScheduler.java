@@ -0,0 +1,283 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 共享的缓存重建调度器:
+ * 1. 同一个 key 排队中只保留一个任务
+ * 2. 队列有界, 按 key 的访问热度排序, 队列满时淘汰最冷的任务(新任务更冷则直接丢弃),
+ *    被丢弃的任务调用 onDrop 释放重建锁, 之后的读请求会再次提交, 相当于推迟重建
+ * 3. 每个 key 前缀同时回源数据库的线程数有上限, 同步回源也受该上限约束;
+ *    有旧数据可返回时短暂等待后失败(由调用方返回旧数据), 没有旧数据时排队等待许可
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    /**
+     * 重建线程数
+     */
+    @Value("${hmdp.cache.rebuild.workers:10}")
+    private int workers;
+
+    /**
+     * 排队任务上限
+     */
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    /**
+     * 每个 key 前缀同时回源的上限
+     */
+    @Value("${hmdp.cache.rebuild.max-concurrency-per-prefix:16}")
+    private int maxConcurrencyPerPrefix;
+
+    /**
+     * 有旧数据可返回时等待回源许可的最长时间(毫秒)
+     */
+    @Value("${hmdp.cache.rebuild.acquire-timeout-millis:500}")
+    private long acquireTimeoutMillis;
+
+    /**
+     * 没有旧数据可返回时排队等待回源许可的最长时间(毫秒), 应接近一次数据库查询的超时时间
+     */
+    @Value("${hmdp.cache.rebuild.queue-timeout-millis:10000}")
+    private long queueTimeoutMillis;
+
+    private final MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+
+    /**
+     * 排队中的 key
+     */
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一分钟 key 的访问次数, 作为重建优先级
+     */
+    private final Cache<String, LongAdder> hotness = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .build();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Counter droppedCounter;
+
+    private Counter dedupCounter;
+
+    private Timer waitTimer;
+
+    public CacheRebuildScheduler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, queue, r -> {
+            Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 核心线程全部预先启动, 任务一律进入优先队列
+        executor.prestartAllCoreThreads();
+        Gauge.builder("cache.rebuild.queue.size", queue, PriorityBlockingQueue::size)
+                .description("排队中的缓存重建任务数")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("cache.rebuild.dropped")
+                .description("队列满被丢弃的重建任务数")
+                .register(meterRegistry);
+        dedupCounter = Counter.builder("cache.rebuild.deduplicated")
+                .description("因同一 key 已在排队而合并的重建任务数")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("cache.rebuild.wait")
+                .description("重建任务排队时间")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问, 访问越多的 key 重建越优先
+     */
+    public void recordAccess(String key) {
+        hotness.get(key, k -> new LongAdder()).increment();
+    }
+
+    private long hotnessOf(Collection<String> keys) {
+        long sum = 0;
+        for (String key : keys) {
+            LongAdder adder = hotness.getIfPresent(key);
+            sum += adder == null ? 0 : adder.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * 提交单个 key 的重建任务
+     */
+    public boolean submit(String keyPrefix, String key, Runnable rebuild, Runnable onDrop) {
+        return submit(keyPrefix, Collections.singletonList(key), rebuild, onDrop);
+    }
+
+    /**
+     * 提交重建任务, 批量任务的所有 key 都已在排队时视为重复
+     *
+     * @param rebuild 重建逻辑, 需要自己释放重建锁
+     * @param onDrop  任务被合并、丢弃或没拿到回源许可时调用, 用于释放重建锁
+     * @return 是否进入队列
+     */
+    public synchronized boolean submit(String keyPrefix, List<String> keys, Runnable rebuild, Runnable onDrop) {
+        // 1.去重
+        if (pending.keySet().containsAll(keys)) {
+            dedupCounter.increment();
+            onDrop.run();
+            return false;
+        }
+        RebuildTask task = new RebuildTask(keyPrefix, keys, rebuild, onDrop, hotnessOf(keys), sequence.incrementAndGet());
+        // 2.队列已满, 淘汰最冷的任务
+        if (queue.size() >= queueCapacity) {
+            RebuildTask coldest = coldest();
+            if (coldest == null || coldest.compareTo(task) <= 0) {
+                // 新任务最冷, 直接丢弃
+                drop(task);
+                return false;
+            }
+            if (queue.remove(coldest)) {
+                coldest.keys.forEach(k -> pending.remove(k, coldest));
+                drop(coldest);
+            }
+        }
+        // 3.入队
+        keys.forEach(k -> pending.put(k, task));
+        executor.execute(task);
+        return true;
+    }
+
+    private RebuildTask coldest() {
+        RebuildTask coldest = null;
+        for (Runnable r : queue) {
+            RebuildTask task = (RebuildTask) r;
+            if (coldest == null || task.compareTo(coldest) > 0) {
+                coldest = task;
+            }
+        }
+        return coldest;
+    }
+
+    private void drop(RebuildTask task) {
+        droppedCounter.increment();
+        log.warn("缓存重建队列已满, 丢弃任务, keys: {}", task.keys);
+        task.onDrop.run();
+    }
+
+    /**
+     * 在 key 前缀的并发上限内回源, 超时未获得许可时抛出异常
+     */
+    public <R> R callWithLimit(String keyPrefix, Supplier<R> loader) {
+        return callWithLimit(keyPrefix, loader, true);
+    }
+
+    /**
+     * @param failFast 调用方有旧数据可返回时为 true, 只等待 acquireTimeoutMillis;
+     *                 否则排队等待 queueTimeoutMillis, 并发的冷启动未命中不会直接失败
+     */
+    public <R> R callWithLimit(String keyPrefix, Supplier<R> loader, boolean failFast) {
+        Semaphore semaphore = permits.computeIfAbsent(keyPrefix, p -> new Semaphore(maxConcurrencyPerPrefix));
+        long timeoutMillis = failFast ? acquireTimeoutMillis : queueTimeoutMillis;
+        try {
+            if (!semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("回源并发已达上限, keyPrefix: " + keyPrefix);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        try {
+            return loader.get();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String keyPrefix;
+        private final List<String> keys;
+        private final Runnable rebuild;
+        private final Runnable onDrop;
+        private final long hotness;
+        private final long seq;
+        private final long enqueuedAt = System.nanoTime();
+
+        RebuildTask(String keyPrefix, List<String> keys, Runnable rebuild, Runnable onDrop, long hotness, long seq) {
+            this.keyPrefix = keyPrefix;
+            this.keys = keys;
+            this.rebuild = rebuild;
+            this.onDrop = onDrop;
+            this.hotness = hotness;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            keys.forEach(k -> pending.remove(k, this));
+            waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            boolean[] started = {false};
+            try {
+                callWithLimit(keyPrefix, () -> {
+                    started[0] = true;
+                    rebuild.run();
+                    return null;
+                });
+            } catch (Exception e) {
+                log.error("缓存重建失败, keys: {}", keys, e);
+                // 没拿到回源许可, 任务没有执行, 推迟到之后的读请求
+                if (!started[0]) {
+                    onDrop.run();
+                }
+            }
+        }
+
+        /**
+         * 越热越靠前, 热度相同时先提交的靠前
+         */
+        @Override
+        public int compareTo(RebuildTask other) {
+            int c = Long.compare(other.hotness, hotness);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+}
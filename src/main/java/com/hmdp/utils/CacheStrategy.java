@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient 单个 key 的查询策略
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值防止穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁重建, 防止击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期, 过期后先返回旧值再异步重建
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 按重建耗时概率性提前刷新(XFetch), 不返回过期数据
+     */
+    EARLY_REFRESH,
+    /**
+     * 按 id 分桶存入小 hash, 每个字段带逻辑过期时间, 节省内存
+     */
+    BUCKETED
+}
@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个 key 前缀回源数据库的熔断器:
+ * 1. CLOSED: 统计窗口内调用数达到下限, 且失败率或慢调用率达到阈值时打开
+ * 2. OPEN: 拒绝所有回源, 经过 openMillis 后进入半开
+ * 3. HALF_OPEN: 只放行少量探测调用, 全部成功则关闭, 任一失败或过慢重新打开
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Getter
+    private final String name;
+
+    private final long windowMillis;
+
+    private final int minCalls;
+
+    private final double failureRateThreshold;
+
+    private final long slowCallNanos;
+
+    private final double slowRateThreshold;
+
+    private final long openMillis;
+
+    private final int halfOpenProbes;
+
+    @Getter
+    private volatile State state = State.CLOSED;
+
+    /**
+     * 当前统计窗口
+     */
+    private long windowStart = System.currentTimeMillis();
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private long openUntil;
+
+    /**
+     * 半开状态已放行、已成功的探测数
+     */
+    private int probes;
+    private int probeSuccesses;
+
+    public CircuitBreaker(String name, long windowMillis, int minCalls, double failureRateThreshold,
+                          long slowCallMillis, double slowRateThreshold, long openMillis, int halfOpenProbes) {
+        this.name = name;
+        this.windowMillis = windowMillis;
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowRateThreshold = slowRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * 是否允许本次回源, 允许后必须调用 onSuccess 或 onError
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntil) {
+                    return false;
+                }
+                // 打开时间已到, 进入半开
+                state = State.HALF_OPEN;
+                probes = 0;
+                probeSuccesses = 0;
+                // fall through
+            default:
+                if (probes >= halfOpenProbes) {
+                    return false;
+                }
+                probes++;
+                return true;
+        }
+    }
+
+    /**
+     * @return 本次调用是否使熔断器打开
+     */
+    public synchronized boolean onSuccess(long nanos) {
+        boolean slow = nanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (slow) {
+                open();
+                return true;
+            }
+            if (++probeSuccesses >= halfOpenProbes) {
+                close();
+            }
+            return false;
+        }
+        return record(false, slow);
+    }
+
+    /**
+     * @return 本次调用是否使熔断器打开
+     */
+    public synchronized boolean onError() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return true;
+        }
+        return record(true, false);
+    }
+
+    private boolean record(boolean failed, boolean slow) {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= windowMillis) {
+            resetWindow(now);
+        }
+        calls++;
+        if (failed) {
+            failures++;
+        }
+        if (slow) {
+            slowCalls++;
+        }
+        if (state == State.CLOSED && calls >= minCalls
+                && ((double) failures / calls >= failureRateThreshold || (double) slowCalls / calls >= slowRateThreshold)) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        resetWindow(System.currentTimeMillis());
+    }
+
+    private void resetWindow(long now) {
+        windowStart = now;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 每个 key 前缀一个回源熔断器, 统计失败率和耗时
+ */
+@Slf4j
+@Component
+public class CircuitBreakerRegistry {
+
+    /**
+     * 统计窗口(秒)
+     */
+    @Value("${hmdp.cache.breaker.window-seconds:10}")
+    private long windowSeconds;
+
+    /**
+     * 窗口内调用数达到该值才判断是否打开
+     */
+    @Value("${hmdp.cache.breaker.min-calls:20}")
+    private int minCalls;
+
+    /**
+     * 失败率阈值
+     */
+    @Value("${hmdp.cache.breaker.failure-rate:0.5}")
+    private double failureRate;
+
+    /**
+     * 耗时超过该值(毫秒)算作慢调用
+     */
+    @Value("${hmdp.cache.breaker.slow-call-millis:1000}")
+    private long slowCallMillis;
+
+    /**
+     * 慢调用率阈值
+     */
+    @Value("${hmdp.cache.breaker.slow-rate:0.5}")
+    private double slowRate;
+
+    /**
+     * 打开后多久(秒)进入半开
+     */
+    @Value("${hmdp.cache.breaker.open-seconds:10}")
+    private long openSeconds;
+
+    /**
+     * 半开时放行的探测调用数
+     */
+    @Value("${hmdp.cache.breaker.half-open-probes:3}")
+    private int halfOpenProbes;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public CircuitBreaker get(String keyPrefix) {
+        return breakers.computeIfAbsent(keyPrefix, prefix -> {
+            CircuitBreaker breaker = new CircuitBreaker(prefix, TimeUnit.SECONDS.toMillis(windowSeconds), minCalls,
+                    failureRate, slowCallMillis, slowRate, TimeUnit.SECONDS.toMillis(openSeconds), halfOpenProbes);
+            Gauge.builder("cache.breaker.state", breaker, b -> b.getState().ordinal())
+                    .description("回源熔断器状态: 0 关闭, 1 打开, 2 半开")
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+            return breaker;
+        });
+    }
+
+    /**
+     * 经过熔断器回源, 熔断器打开时直接抛出异常, 不访问数据库
+     */
+    public <R> R call(String keyPrefix, Supplier<R> loader) {
+        CircuitBreaker breaker = get(keyPrefix);
+        if (!breaker.tryAcquire()) {
+            throw new RuntimeException("回源已熔断, keyPrefix: " + keyPrefix);
+        }
+        long start = System.nanoTime();
+        R r;
+        try {
+            r = loader.get();
+        } catch (RuntimeException | Error e) {
+            // Error 也要记录, 否则半开时的探测调用一直占用名额, 熔断器无法再关闭或打开
+            if (breaker.onError()) {
+                log.warn("回源失败过多, 熔断器打开, keyPrefix: {}", keyPrefix);
+            }
+            throw e;
+        }
+        if (breaker.onSuccess(System.nanoTime() - start)) {
+            log.warn("回源过慢, 熔断器打开, keyPrefix: {}", keyPrefix);
+        }
+        return r;
+    }
+}
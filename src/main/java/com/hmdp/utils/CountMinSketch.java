@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch: 用固定内存估计元素出现的次数, 只会高估不会低估.
+ * 误差约为 总次数 * e / width, 超出该误差的概率约为 e^-depth
+ */
+public class CountMinSketch {
+
+    private final int width;
+
+    private final int depth;
+
+    private final AtomicLongArray counters;
+
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("width 和 depth 必须大于0");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * 元素的哈希, 同一个元素在多个 sketch 中计数时只需计算一次
+     */
+    public static long[] hash(Object item) {
+        return MurmurHash.hash128(item.toString());
+    }
+
+    /**
+     * 双重哈希得到每一行的下标
+     */
+    private int index(int row, long[] hash) {
+        long combined = hash[0] + row * hash[1];
+        return row * width + (int) ((combined & Long.MAX_VALUE) % width);
+    }
+
+    public void add(long[] hash) {
+        for (int row = 0; row < depth; row++) {
+            counters.incrementAndGet(index(row, hash));
+        }
+    }
+
+    /**
+     * 各行计数的最小值
+     */
+    public long estimate(long[] hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(index(row, hash)));
+        }
+        return min;
+    }
+
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.date.LocalDateTimeUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.HotKeyDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点 key 探测:
+ * 1. 按采样率抽样访问 Redis 的读请求, 计入滑动窗口内的 Count-Min Sketch
+ * 2. 窗口内估计访问次数超过阈值的 key 判定为热点, 并广播给所有节点
+ * 3. 热点 key 由 CacheClient 在每个节点固定一份短期本地副本, 减少对单个 Redis 分片的访问
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+
+    /**
+     * 采样率, 估计次数按采样率放大
+     */
+    @Value("${hmdp.cache.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+
+    /**
+     * 统计窗口(秒)及窗口内的分段数, 每过一段清空最旧的分段
+     */
+    @Value("${hmdp.cache.hot-key.window-seconds:10}")
+    private long windowSeconds;
+
+    @Value("${hmdp.cache.hot-key.window-buckets:5}")
+    private int windowBuckets;
+
+    /**
+     * 窗口内估计访问次数达到该值判定为热点
+     */
+    @Value("${hmdp.cache.hot-key.threshold:500}")
+    private long threshold;
+
+    /**
+     * 判定为热点后保持的时间(秒), 仍然很热时会在过期前重新广播
+     */
+    @Value("${hmdp.cache.hot-key.hold-seconds:60}")
+    private long holdSeconds;
+
+    /**
+     * 同时保留的热点 key 上限
+     */
+    @Value("${hmdp.cache.hot-key.max-keys:1000}")
+    private long maxKeys;
+
+    @Value("${hmdp.cache.hot-key.sketch-width:2048}")
+    private int sketchWidth;
+
+    @Value("${hmdp.cache.hot-key.sketch-depth:4}")
+    private int sketchDepth;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final MeterRegistry meterRegistry;
+
+    private CountMinSketch[] buckets;
+
+    private long bucketMillis;
+
+    /**
+     * 当前分段的序号, 即 当前时间 / bucketMillis
+     */
+    private volatile long currentEpoch;
+
+    private Cache<String, HotKey> hotKeys;
+
+    public HotKeyDetector(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                          MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void init() {
+        buckets = new CountMinSketch[windowBuckets];
+        for (int i = 0; i < windowBuckets; i++) {
+            buckets[i] = new CountMinSketch(sketchWidth, sketchDepth);
+        }
+        bucketMillis = Math.max(1, TimeUnit.SECONDS.toMillis(windowSeconds) / windowBuckets);
+        currentEpoch = System.currentTimeMillis() / bucketMillis;
+        hotKeys = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(holdSeconds, TimeUnit.SECONDS)
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_HOT_KEY_CHANNEL));
+        Gauge.builder("cache.hot.keys", hotKeys, Cache::estimatedSize)
+                .description("当前热点 key 数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次访问 Redis 的读请求, 抽样计数, 超过阈值时提升为热点
+     */
+    public void recordAccess(String key) {
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        long[] hash = CountMinSketch.hash(key);
+        CountMinSketch bucket = currentBucket();
+        bucket.add(hash);
+        if (estimate(hash) < threshold) {
+            return;
+        }
+        // 已是热点且离过期还早, 不重复广播
+        HotKey hotKey = hotKeys.getIfPresent(key);
+        long now = System.currentTimeMillis();
+        if (hotKey != null && now - hotKey.promotedAt < TimeUnit.SECONDS.toMillis(holdSeconds) / 2) {
+            return;
+        }
+        promote(key);
+        stringRedisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, key);
+        log.info("发现热点key: {}", key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.getIfPresent(key) != null;
+    }
+
+    /**
+     * 记录热点 key 的本地副本是否命中
+     */
+    public void recordHit(String key, boolean hit) {
+        HotKey hotKey = hotKeys.getIfPresent(key);
+        if (hotKey != null) {
+            (hit ? hotKey.hits : hotKey.misses).increment();
+        }
+    }
+
+    /**
+     * 当前热点 key, 按估计访问次数从高到低排列
+     */
+    public List<HotKeyDTO> hotKeys() {
+        return hotKeys.asMap().entrySet().stream()
+                .map(entry -> {
+                    HotKey hotKey = entry.getValue();
+                    long hits = hotKey.hits.sum();
+                    long misses = hotKey.misses.sum();
+                    HotKeyDTO dto = new HotKeyDTO();
+                    dto.setKey(entry.getKey());
+                    dto.setEstimatedCount(estimate(CountMinSketch.hash(entry.getKey())));
+                    dto.setHits(hits);
+                    dto.setMisses(misses);
+                    dto.setHitRate(hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+                    dto.setPromotedAt(LocalDateTimeUtil.of(hotKey.promotedAt));
+                    return dto;
+                })
+                .sorted(Comparator.comparing(HotKeyDTO::getEstimatedCount).reversed())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        promote(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 加入或续期热点, 续期时保留命中统计
+     */
+    private void promote(String key) {
+        HotKey existing = hotKeys.getIfPresent(key);
+        HotKey hotKey = existing == null ? new HotKey() : existing;
+        hotKey.promotedAt = System.currentTimeMillis();
+        hotKeys.put(key, hotKey);
+    }
+
+    /**
+     * 窗口内估计访问次数, 按采样率放大
+     */
+    private long estimate(long[] hash) {
+        currentBucket();
+        long sum = 0;
+        for (CountMinSketch bucket : buckets) {
+            sum += bucket.estimate(hash);
+        }
+        return (long) (sum / sampleRate);
+    }
+
+    /**
+     * 进入新的分段时清空已滑出窗口的分段
+     */
+    private CountMinSketch currentBucket() {
+        long epoch = System.currentTimeMillis() / bucketMillis;
+        if (epoch > currentEpoch) {
+            synchronized (this) {
+                if (epoch > currentEpoch) {
+                    long steps = Math.min(epoch - currentEpoch, buckets.length);
+                    for (long e = epoch - steps + 1; e <= epoch; e++) {
+                        buckets[(int) (e % buckets.length)].clear();
+                    }
+                    currentEpoch = epoch;
+                }
+            }
+        }
+        return buckets[(int) (epoch % buckets.length)];
+    }
+
+    private static class HotKey {
+        private volatile long promotedAt;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+}
@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于 Hutool JSON 的编解码器, 与历史缓存格式一致
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        if (type.isArray()) {
+            // 数组按元素类型转换, toBean(String, Class) 只支持对象
+            return JSONUtil.toBean(json, (Type) type, false);
+        }
+        return JSONUtil.toBean(json, type);
+    }
+
+    @Override
+    public byte[] encodeRedisData(RedisData redisData) {
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public RedisData decodeRedisData(byte[] bytes, Class<?> dataType) {
+        RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        Object data = redisData.getData();
+        redisData.setData(data instanceof JSONArray
+                ? ((JSONArray) data).toArray(dataType)
+                : JSONUtil.toBean((JSONObject) data, dataType));
+        return redisData;
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.OrderResultDTO;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_RESULT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_RESULT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_RESULT_TTL;
+
+/**
+ * 订单处理结果通知. 消费者入库后把每个订单的结果写入 Redis 并广播,
+ * 客户端长轮询等待自己的订单, 结果到达的节点直接唤醒本地等待的请求, 不需要轮询数据库
+ */
+@Slf4j
+@Component
+public class OrderResultNotifier implements MessageListener {
+
+    /**
+     * 单次等待的最长时间(毫秒)
+     */
+    @Value("${hmdp.seckill.order.result-max-wait-millis:30000}")
+    private long maxWaitMillis;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 订单id -> 本节点上等待该订单结果的请求
+     */
+    private final Map<Long, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    public OrderResultNotifier(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_ORDER_RESULT_CHANNEL));
+    }
+
+    /**
+     * 保存并广播订单结果, 一次管道写完整批
+     */
+    public void publish(Collection<OrderResultDTO> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        byte[] channel = SECKILL_ORDER_RESULT_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        Expiration ttl = Expiration.from(SECKILL_ORDER_RESULT_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (OrderResultDTO result : results) {
+                byte[] json = JSONUtil.toJsonStr(result).getBytes(StandardCharsets.UTF_8);
+                byte[] key = (SECKILL_ORDER_RESULT_KEY + result.getOrderId()).getBytes(StandardCharsets.UTF_8);
+                connection.stringCommands().set(key, json, ttl, RedisStringCommands.SetOption.upsert());
+                connection.publish(channel, json);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 等待订单结果, 超时返回 PENDING, 客户端再次请求即可; 只能查询自己的订单
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long timeoutMillis) {
+        DeferredResult<Result> deferred = new DeferredResult<>(Math.min(Math.max(timeoutMillis, 1), maxWaitMillis));
+        Waiter waiter = new Waiter(userId, deferred);
+        // 1.先登记再查询, 查询期间到达的结果也不会错过
+        waiters.compute(orderId, (id, set) -> {
+            Set<Waiter> s = set == null ? ConcurrentHashMap.newKeySet() : set;
+            s.add(waiter);
+            return s;
+        });
+        deferred.onTimeout(() -> deferred.setResult(Result.ok(OrderResultDTO.pending(orderId))));
+        deferred.onCompletion(() -> waiters.computeIfPresent(orderId, (id, set) -> {
+            set.remove(waiter);
+            return set.isEmpty() ? null : set;
+        }));
+        // 2.结果已经存在时直接返回
+        String json = stringRedisTemplate.opsForValue().get(SECKILL_ORDER_RESULT_KEY + orderId);
+        if (json != null) {
+            waiter.complete(JSONUtil.toBean(json, OrderResultDTO.class));
+        }
+        return deferred;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        OrderResultDTO result;
+        try {
+            result = JSONUtil.toBean(new String(message.getBody(), StandardCharsets.UTF_8), OrderResultDTO.class);
+        } catch (Exception e) {
+            log.warn("非法的订单结果消息", e);
+            return;
+        }
+        Set<Waiter> set = waiters.get(result.getOrderId());
+        if (set != null) {
+            set.forEach(waiter -> waiter.complete(result));
+        }
+    }
+
+    private static class Waiter {
+
+        private final Long userId;
+
+        private final DeferredResult<Result> deferred;
+
+        private Waiter(Long userId, DeferredResult<Result> deferred) {
+            this.userId = userId;
+            this.deferred = deferred;
+        }
+
+        private void complete(OrderResultDTO result) {
+            // 不是自己的订单, 与订单不存在一样处理
+            deferred.setResult(userId.equals(result.getUserId()) ? Result.ok(result) : Result.fail("订单不存在"));
+        }
+    }
+}
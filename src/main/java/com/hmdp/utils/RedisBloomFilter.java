@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+
+/**
+ * 基于 Redis 位图的布隆过滤器, 本地保留一份位图镜像, 判断是否存在时不访问 Redis.
+ * 位序与 Redis SETBIT 一致: 第 n 位是第 n/8 个字节从高位数起的第 n%8 位
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    /**
+     * Redis 字符串最大 512MB
+     */
+    private static final long MAX_BIT_SIZE = 1L << 32;
+
+    private final String name;
+
+    private final String key;
+
+    /**
+     * 位图长度 m
+     */
+    private final long bitSize;
+
+    /**
+     * 哈希函数个数 k
+     */
+    private final int hashFunctions;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地位图镜像, 重建完成后整体替换
+     */
+    private volatile AtomicLongArray bits;
+
+    /**
+     * 位图未加载前不能用来判断, 一律视为可能存在
+     */
+    private volatile boolean ready;
+
+    /**
+     * 重建期间新增的 id, 重建完成后补写到新位图
+     */
+    private volatile Set<String> pendingAdds;
+
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        this.name = name;
+        this.key = BLOOM_FILTER_KEY + name;
+        this.bitSize = optimalBitSize(expectedInsertions, fpp);
+        this.hashFunctions = optimalHashFunctions(expectedInsertions, bitSize);
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.bits = newBits(bitSize);
+        log.info("布隆过滤器 {}: 预计元素 {}, 误判率 {}, 位数 {}, 哈希函数 {}",
+                name, expectedInsertions, fpp, bitSize, hashFunctions);
+    }
+
+    /**
+     * m = -n * ln(p) / (ln2)^2, 不超过 Redis 字符串上限, 按 64 位对齐
+     */
+    static long optimalBitSize(long n, double p) {
+        long m = (long) Math.ceil(-Math.max(n, 1) * Math.log(p) / (Math.log(2) * Math.log(2)));
+        m = Math.min(Math.max(m, Long.SIZE), MAX_BIT_SIZE);
+        return (m + Long.SIZE - 1) / Long.SIZE * Long.SIZE;
+    }
+
+    /**
+     * k = m / n * ln2
+     */
+    static int optimalHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / Math.max(n, 1) * Math.log(2)));
+    }
+
+    private static AtomicLongArray newBits(long bitSize) {
+        return new AtomicLongArray((int) (bitSize / Long.SIZE));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 双重哈希: 第 i 个位置为 h1 + i * h2
+     */
+    private long[] offsets(Object id) {
+        long[] hash = MurmurHash.hash128(id.toString());
+        long[] offsets = new long[hashFunctions];
+        long combined = hash[0];
+        for (int i = 0; i < hashFunctions; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % bitSize;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+
+    private static boolean getBit(AtomicLongArray bits, long offset) {
+        return (bits.get((int) (offset >>> 6)) & (1L << offset)) != 0;
+    }
+
+    private static void setBit(AtomicLongArray bits, long offset) {
+        long mask = 1L << offset;
+        bits.getAndAccumulate((int) (offset >>> 6), mask, (word, m) -> word | m);
+    }
+
+    /**
+     * 返回 false 表示一定不存在, 返回 true 表示可能存在
+     */
+    public boolean mightContain(Object id) {
+        if (!ready || id == null) {
+            return true;
+        }
+        AtomicLongArray current = bits;
+        for (long offset : offsets(id)) {
+            if (!getBit(current, offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 写入本地镜像和 Redis 位图
+     */
+    public void put(Object id) {
+        long[] offsets = putLocal(id);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.stringCommands().setBit(rawKey, offset, true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 只写入本地镜像, 用于接收其他节点广播的新增 id
+     */
+    public long[] putLocal(Object id) {
+        long[] offsets = offsets(id);
+        AtomicLongArray current = bits;
+        for (long offset : offsets) {
+            setBit(current, offset);
+        }
+        Set<String> pending = pendingAdds;
+        if (pending != null) {
+            pending.add(id.toString());
+        }
+        return offsets;
+    }
+
+    /**
+     * 从 Redis 加载位图到本地
+     *
+     * @return Redis 中没有该位图时返回 false
+     */
+    public boolean load() {
+        byte[] raw = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+        if (raw == null) {
+            return false;
+        }
+        bits = fromRedisBytes(raw);
+        ready = true;
+        return true;
+    }
+
+    /**
+     * 全量重建: 写到临时 key 后 RENAME 覆盖, 清除已删除数据残留的位
+     *
+     * @param source 遍历数据库中的全部 id
+     */
+    public void rebuild(Consumer<Consumer<Object>> source) {
+        // 1.记录重建期间新增的 id
+        pendingAdds = ConcurrentHashMap.newKeySet();
+        try {
+            // 2.在新位图上写入全部 id
+            AtomicLongArray fresh = newBits(bitSize);
+            long[] count = {0};
+            source.accept(id -> {
+                for (long offset : offsets(id)) {
+                    setBit(fresh, offset);
+                }
+                count[0]++;
+            });
+            // 3.写入临时 key 再原子替换
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            byte[] tmpKey = (key + ":rebuild").getBytes(StandardCharsets.UTF_8);
+            byte[] value = toRedisBytes(fresh);
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.stringCommands().set(tmpKey, value);
+                connection.keyCommands().rename(tmpKey, rawKey);
+                return null;
+            });
+            bits = fresh;
+            ready = true;
+            // 4.补写重建期间新增的 id
+            Set<String> pending = pendingAdds;
+            pendingAdds = null;
+            pending.forEach(this::put);
+            log.info("布隆过滤器 {} 重建完成, 写入 {} 个id, 补写 {} 个id", name, count[0], pending.size());
+        } finally {
+            pendingAdds = null;
+        }
+    }
+
+    private AtomicLongArray fromRedisBytes(byte[] raw) {
+        AtomicLongArray loaded = newBits(bitSize);
+        int length = (int) Math.min(raw.length, bitSize / Byte.SIZE);
+        for (int i = 0; i < length; i++) {
+            int b = raw[i] & 0xFF;
+            for (int j = 0; j < Byte.SIZE; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    setBit(loaded, (long) i * Byte.SIZE + j);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private byte[] toRedisBytes(AtomicLongArray source) {
+        byte[] raw = new byte[(int) (bitSize / Byte.SIZE)];
+        for (int w = 0; w < source.length(); w++) {
+            long word = source.get(w);
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                long offset = (long) w * Long.SIZE + bit;
+                raw[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+                word &= word - 1;
+            }
+        }
+        return raw;
+    }
+}
@@ -12,12 +12,43 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType";
+    public static final String CACHE_SHOP_RESP_KEY = "cache:shop:resp:";
+    public static final String CACHE_SHOP_TYPE_RESP_KEY = "cache:shopType:resp:";
+    public static final String CACHE_PRELOAD_WATERMARK_KEY = "cache:preload:watermark:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey";
+    public static final String CACHE_VERSION_KEY = "cache:version:";
+    public static final Long CACHE_VERSION_TTL = 1440L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+    public static final String BLOOM_RELOAD_CHANNEL = "bloom:reload";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String LOCK_CACHE_KEY = "lock:";
     public static final String LOCK_ORDER_KEY = "lock:order:";
+    public static final String LOCK_ORDER_PARTITION_KEY = "lock:order:partition:";
+    public static final String LOCK_ORDER_LEGACY_KEY = "lock:order:legacy";
+    public static final String LOCK_BLOOM_REBUILD_KEY = "lock:bloom:rebuild:";
+    public static final String LOCK_CACHE_PRELOAD_KEY = "lock:cache:preload:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_STOCK_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders.";
+    public static final String SECKILL_ORDER_LEGACY_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_PARTITIONS_KEY = "seckill:order:partitions";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dead";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    public static final String SECKILL_ROOM_KEY = "seckill:room:";
+    public static final String SECKILL_ORDER_RESULT_KEY = "seckill:order:result:";
+    public static final String SECKILL_ORDER_RESULT_CHANNEL = "seckill:order:result";
+    public static final Long SECKILL_ORDER_RESULT_TTL = 30L;
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
 
     public static final String CACHE_BLOG_IS_LIKED_KEY = "blog:isLiked:";
     public static final int LIKES_START_INDEX = 0;
@@ -2,11 +2,56 @@ package com.hmdp.utils;
 
 import lombok.Data;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 
 @Data
 public class RedisData {
     private LocalDateTime expireTime;
+    // 上一次重建耗时(毫秒), 提前刷新时使用
+    private Long rebuildMillis;
     // 聚合
     private Object data;
+
+    /**
+     * hash 结构中过期时间字段的编码, 十进制毫秒
+     */
+    public static byte[] encodeExpireMillis(long expireMillis) {
+        return Long.toString(expireMillis).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 直接从 Redis 返回的字节解析过期时间, 不创建字符串, 也不解码数据
+     */
+    public static long parseExpireMillis(byte[] bytes) {
+        long value = 0;
+        for (byte b : bytes) {
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("非法的过期时间: " + new String(bytes, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 分桶存储的字段值: [逻辑过期时间(毫秒) varlong][数据], 数据为空表示数据库中不存在
+     */
+    public static byte[] encodeEntry(long expireMillis, byte[] data) {
+        BinaryCacheCodec.Output out = new BinaryCacheCodec.Output(10 + data.length);
+        out.writeVarLong(expireMillis);
+        out.writeBytes(data);
+        return out.toByteArray();
+    }
+
+    public static long parseEntryExpireMillis(byte[] entry) {
+        return new BinaryCacheCodec.Input(entry, 0).readVarLong();
+    }
+
+    public static byte[] entryData(byte[] entry) {
+        BinaryCacheCodec.Input in = new BinaryCacheCodec.Input(entry, 0);
+        in.readVarLong();
+        return Arrays.copyOfRange(entry, in.position(), entry.length);
+    }
 }
@@ -1,13 +1,24 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.date.DatePattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -19,6 +30,31 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(DatePattern.PURE_DATE_PATTERN);
+
+    /**
+     * 是否开启号段模式. 秒杀订单的序列号在 seckill.lua 中分配, 不经过 nextId, 因此默认关闭;
+     * 号段与脚本使用同一个自增key, 其它调用 nextId 的业务可以单独开启
+     */
+    @Value("${hmdp.id.segment.enabled:false}")
+    private boolean segmentEnabled;
+
+    /**
+     * 每次 INCRBY 申请的号段长度
+     */
+    @Value("${hmdp.id.segment.step:1000}")
+    private int segmentStep;
+
+    /**
+     * 当前号段剩余比例低于该值时异步预取下一个号段
+     */
+    @Value("${hmdp.id.segment.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+
     private StringRedisTemplate stringRedisTemplate;
 
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
@@ -26,18 +62,152 @@ public class RedisIdWorker {
     }
 
     public long nextId(String keyPrefix) {
+        return segmentEnabled ? nextIdWithSegment(keyPrefix) : nextIdWithIncr(keyPrefix);
+    }
+
+    /**
+     * 每个id一次 INCR
+     */
+    public long nextIdWithIncr(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long timestamp = timestampOf(now);
 
         // 2.生成序列号
-        // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern(DatePattern.PURE_DATE_PATTERN));
+        // 2.1.获取当前日期，精确到天, 拼接自增key
+        String key = counterKey(keyPrefix, now);
         // 2.2.自增长
-        String key = String.format("icr:%s:%s", keyPrefix, date);
         long count = stringRedisTemplate.opsForValue().increment(key);
         // 3.拼接并返回
+        return compose(timestamp, count);
+    }
+
+    /**
+     * 号段模式: 一次 INCRBY 预占 step 个序列号, 本地无锁发号, 用到一定比例时异步预取下一段
+     */
+    public long nextIdWithSegment(String keyPrefix) {
+        // 1.生成时间戳, 与 LocalDateTime.now().toEpochSecond(UTC) 一致, 但不创建对象
+        long nowMillis = System.currentTimeMillis();
+        long localSecond = (nowMillis + TimeZone.getDefault().getOffset(nowMillis)) / 1000;
+        long day = Math.floorDiv(localSecond, SECONDS_PER_DAY);
+        SegmentBuffer buffer = segmentBuffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment == null || segment.day != day) {
+                switchSegment(buffer, segment, day);
+                continue;
+            }
+            // 2.本地发号
+            long count = segment.cursor.getAndIncrement();
+            if (count <= segment.max) {
+                // 恰好一个线程会走到预取点
+                if (count == segment.prefetchAt) {
+                    prefetch(buffer, day);
+                }
+                // 3.拼接并返回
+                return compose(localSecond - BEGIN_TIMESTAMP, count);
+            }
+            // 当前号段用完, 切换到下一段
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    /**
+     * 按 timestamp << 32 | count 拼接id
+     */
+    public static long compose(long timestamp, long count) {
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * id 的时间戳部分, 供在 Lua 脚本中分配序列号的调用方使用
+     */
+    public static long timestampOf(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 当天的自增key: icr:{keyPrefix}:{yyyyMMdd}
+     */
+    public static String counterKey(String keyPrefix, LocalDateTime now) {
+        return "icr:" + keyPrefix + ":" + now.format(DATE_FORMATTER);
+    }
+
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long day) {
+        synchronized (buffer) {
+            // 其它线程已经切换过
+            if (buffer.current != exhausted) {
+                return;
+            }
+            Segment next = null;
+            CompletableFuture<Segment> prefetched = buffer.next;
+            buffer.next = null;
+            if (prefetched != null) {
+                try {
+                    next = prefetched.join();
+                } catch (Exception e) {
+                    log.error("预取号段失败, keyPrefix: {}", buffer.keyPrefix, e);
+                }
+            }
+            // 没有预取, 或者预取的是前一天的号段
+            if (next == null || next.day != day) {
+                next = allocate(buffer.keyPrefix, day);
+            }
+            buffer.current = next;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, long day) {
+        synchronized (buffer) {
+            if (buffer.next == null) {
+                buffer.next = CompletableFuture.supplyAsync(() -> allocate(buffer.keyPrefix, day), PrefetchExecutorHolder.EXECUTOR);
+            }
+        }
+    }
+
+    private Segment allocate(String keyPrefix, long day) {
+        String key = "icr:" + keyPrefix + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        long max = stringRedisTemplate.opsForValue().increment(key, segmentStep);
+        long min = max - segmentStep + 1;
+        long prefetchAt = max - (long) (segmentStep * prefetchRatio);
+        return new Segment(day, min, max, Math.max(min, prefetchAt));
+    }
+
+    /**
+     * 号段预取线程, 第一次预取时才创建
+     */
+    private static class PrefetchExecutorHolder {
+        private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "id-segment-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    /**
+     * 号段 [min, max], cursor 为下一个待发放的序列号
+     */
+    private static class Segment {
+        private final long day;
+        private final AtomicLong cursor;
+        private final long max;
+        private final long prefetchAt;
+
+        Segment(long day, long min, long max, long prefetchAt) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+    }
 }
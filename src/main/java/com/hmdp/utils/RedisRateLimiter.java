@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 基于 Redis 的分布式令牌桶限流:
+ * 1. 多个桶在一个 Lua 脚本内一起判断, 全部有令牌才通过, 不会只扣掉其中一个
+ * 2. 被拒绝后在本地记录需要等待的时间, 等待期间的请求直接在本地拒绝, 不访问 Redis
+ * 3. 按桶的类别统计通过与拒绝次数, 导出的桶同时导出剩余令牌数
+ */
+@Component
+public class RedisRateLimiter {
+
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 桶key -> 令牌不足时可以重试的时间
+     */
+    private final Cache<String, Long> blockedUntil = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 导出的桶最近一次看到的剩余令牌数
+     */
+    private final Map<String, AtomicLong> exportedTokens = new ConcurrentHashMap<>();
+
+    public RedisRateLimiter(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 每个桶取一个令牌, 任一桶令牌不足时都不扣减
+     */
+    public boolean tryAcquire(Bucket... buckets) {
+        // 1.本地预检: 仍在等待期内的桶直接拒绝
+        long now = System.currentTimeMillis();
+        for (Bucket bucket : buckets) {
+            Long until = blockedUntil.getIfPresent(bucket.key);
+            if (until != null && now < until) {
+                count(bucket, "rejected_local");
+                return false;
+            }
+        }
+        // 2.Redis 中原子判断并扣减
+        List<String> keys = new ArrayList<>(buckets.length);
+        List<String> args = new ArrayList<>(buckets.length * 2 + 1);
+        args.add(String.valueOf(now));
+        for (Bucket bucket : buckets) {
+            keys.add(bucket.key);
+            args.add(String.valueOf(bucket.capacity));
+            args.add(String.valueOf(bucket.ratePerSecond));
+        }
+        List<?> result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, args.toArray());
+        boolean allowed = (Long) Objects.requireNonNull(result).get(0) == 1;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i].exported) {
+                tokensOf(buckets[i]).set((Long) result.get(i + 3));
+            }
+        }
+        if (allowed) {
+            for (Bucket bucket : buckets) {
+                count(bucket, "allowed");
+            }
+            return true;
+        }
+        // 3.记录被拒绝的桶的等待时间
+        Bucket rejected = buckets[((Long) result.get(1)).intValue() - 1];
+        blockedUntil.put(rejected.key, now + (Long) result.get(2));
+        count(rejected, "rejected");
+        return false;
+    }
+
+    private void count(Bucket bucket, String result) {
+        Counter.builder("ratelimit.requests")
+                .description("限流判断次数, rejected_local 为本地预检拒绝")
+                .tag("scope", bucket.scope)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private AtomicLong tokensOf(Bucket bucket) {
+        return exportedTokens.computeIfAbsent(bucket.key, key -> {
+            AtomicLong tokens = new AtomicLong(bucket.capacity);
+            Gauge.builder("ratelimit.bucket.tokens", tokens, AtomicLong::get)
+                    .description("令牌桶最近一次的剩余令牌数")
+                    .tag("scope", bucket.scope)
+                    .tag("id", bucket.id)
+                    .register(meterRegistry);
+            return tokens;
+        });
+    }
+
+    /**
+     * 令牌桶, key 为 rate:limit:{scope}:{id}
+     */
+    @Getter
+    public static class Bucket {
+
+        private final String scope;
+
+        private final String id;
+
+        private final String key;
+
+        private final long capacity;
+
+        private final double ratePerSecond;
+
+        /**
+         * 是否导出剩余令牌数, 只用于数量有限的桶(例如按券), 按用户的桶不导出
+         */
+        private final boolean exported;
+
+        public Bucket(String scope, Object id, long capacity, double ratePerSecond, boolean exported) {
+            this.scope = scope;
+            this.id = id.toString();
+            this.key = RATE_LIMIT_KEY + scope + ":" + id;
+            this.capacity = capacity;
+            this.ratePerSecond = ratePerSecond;
+            this.exported = exported;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+/**
+ * 秒杀一人一单的去重结构, 秒杀脚本按该模式检查并记录用户
+ */
+public enum SeckillDedupMode {
+    /**
+     * seckill:order:{voucherId} 集合, 每个成员是十进制 userId
+     */
+    SET,
+    /**
+     * 分片位图 seckill:order:bm:{voucherId}:{userId >> 20}, 第 userId & 0xFFFFF 位表示是否已下单,
+     * 每个分片最多 128KB, userId 连续时每个用户约 1 bit
+     */
+    BITMAP,
+    /**
+     * 迁移用: 两种结构都检查、都写入, 可以随时切回 SET 或切到 BITMAP
+     */
+    BOTH
+}
@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄登记表. 某个节点发现优惠券售罄后通过 Redis 发布订阅通知所有节点,
+ * 之后该券的秒杀请求在本地直接拒绝, 不再访问 Redis
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    private final Set<Long> soldOutVouchers = ConcurrentHashMap.newKeySet();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SeckillSoldOutRegistry(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, Arrays.asList(
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL), new ChannelTopic(SECKILL_RESTOCK_CHANNEL)));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutVouchers.contains(voucherId);
+    }
+
+    /**
+     * 标记售罄, 只有本节点第一次标记时才广播
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOutVouchers.add(voucherId)) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 库存被归还或重新补充时清除售罄标记
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOutVouchers.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            log.warn("非法的售罄消息, channel: {}", channel);
+            return;
+        }
+        if (SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOutVouchers.add(voucherId);
+        } else {
+            soldOutVouchers.remove(voucherId);
+        }
+    }
+}
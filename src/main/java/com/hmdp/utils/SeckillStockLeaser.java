@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀库存租约. 每个节点一次从 Redis 租借一批库存, 在本地用原子计数判断库存,
+ * 只有拿到本地许可的请求才访问 Redis 做一人一单.
+ * 1. 租约在 Redis 中记录剩余数量, 下单脚本同时扣减, 租约失效后不能再下单, 不会超卖
+ * 2. 租约到期或节点关闭时归还剩余库存; 节点宕机时由其它节点在回收时间后收回
+ */
+@Slf4j
+@Component
+public class SeckillStockLeaser {
+
+    private static final DefaultRedisScript<List> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("seckill_lease.lua"));
+        LEASE_SCRIPT.setResultType(List.class);
+        RETURN_SCRIPT = new DefaultRedisScript<>();
+        RETURN_SCRIPT.setLocation(new ClassPathResource("seckill_lease_return.lua"));
+        RETURN_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 每次租借的库存数
+     */
+    @Value("${hmdp.seckill.lease.chunk:200}")
+    private int chunk;
+
+    /**
+     * 租约有效期(秒), 到期后归还剩余库存; Redis 端在两倍有效期后才回收, 留出归还的时间
+     */
+    @Value("${hmdp.seckill.lease.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    /**
+     * 库存已全部租出时, 多久(毫秒)内不再向 Redis 申请
+     */
+    @Value("${hmdp.seckill.lease.empty-backoff-millis:200}")
+    private long emptyBackoffMillis;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    /**
+     * 租约id前缀, 每次启动不同, 重启前的租约由回收时间兜底
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    private final AtomicLong leaseSeq = new AtomicLong();
+
+    /**
+     * 每张券当前使用的租约
+     */
+    private final Map<Long, Lease> current = new ConcurrentHashMap<>();
+
+    /**
+     * 尚未归还的租约, 包括已用完被替换的
+     */
+    private final Set<Lease> outstanding = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 库存已全部租出的券, 到该时间前直接判断为无库存
+     */
+    private final Map<Long, Long> emptyUntil = new ConcurrentHashMap<>();
+
+    private final Map<Long, Object> renewLocks = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService expirer;
+
+    public SeckillStockLeaser(StringRedisTemplate stringRedisTemplate, SeckillSoldOutRegistry soldOutRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutRegistry = soldOutRegistry;
+    }
+
+    @PostConstruct
+    private void init() {
+        expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-lease-expirer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expirer.scheduleWithFixedDelay(this::returnExpired, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 1.停止到期检查, 2.归还所有未用完的库存
+        expirer.shutdownNow();
+        current.clear();
+        for (Lease lease : outstanding) {
+            giveBack(lease);
+        }
+    }
+
+    /**
+     * 从本地租约取一个库存许可, 本地用完时向 Redis 续租
+     *
+     * @return 取到许可的租约, 下单失败时需调用 release 或 discard; 无库存时返回 null
+     */
+    public Lease acquire(Long voucherId) {
+        Lease lease = current.get(voucherId);
+        while (true) {
+            if (lease != null && !lease.isExpired() && lease.permits.decrementAndGet() >= 0) {
+                return lease;
+            }
+            lease = renew(voucherId, lease);
+            if (lease == null) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 许可未使用(例如重复下单), 退回本地计数; Redis 中的剩余数量未扣减
+     */
+    public void release(Lease lease) {
+        lease.permits.incrementAndGet();
+    }
+
+    /**
+     * 租约在 Redis 中已不存在, 不再使用
+     */
+    public void discard(Lease lease) {
+        current.remove(lease.voucherId, lease);
+        outstanding.remove(lease);
+    }
+
+    private Lease renew(Long voucherId, Lease stale) {
+        synchronized (renewLocks.computeIfAbsent(voucherId, k -> new Object())) {
+            // 1.其它线程已经续租
+            Lease lease = current.get(voucherId);
+            if (lease != null && lease != stale) {
+                return lease;
+            }
+            Long until = emptyUntil.get(voucherId);
+            if (until != null && System.currentTimeMillis() < until) {
+                return null;
+            }
+            // 2.旧租约留在 outstanding 中, 到期后归还进行中请求未用掉的库存
+            if (stale != null) {
+                current.remove(voucherId, stale);
+            }
+            long now = System.currentTimeMillis();
+            long expireAt = now + TimeUnit.SECONDS.toMillis(ttlSeconds);
+            String leaseId = nodeId + ":" + leaseSeq.incrementAndGet();
+            List<?> result = stringRedisTemplate.execute(
+                    LEASE_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    leaseId,
+                    String.valueOf(chunk),
+                    String.valueOf(now),
+                    String.valueOf(expireAt + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+            int granted = ((Long) Objects.requireNonNull(result).get(0)).intValue();
+            // 3.没有租到库存
+            if (granted <= 0) {
+                if ((Long) result.get(1) == 0) {
+                    // 没有任何节点持有租约, 确实售罄
+                    soldOutRegistry.markSoldOut(voucherId);
+                } else {
+                    // 其它节点还有租约, 可能会归还, 短暂退避
+                    emptyUntil.put(voucherId, now + emptyBackoffMillis);
+                }
+                return null;
+            }
+            emptyUntil.remove(voucherId);
+            lease = new Lease(voucherId, leaseId, granted, expireAt);
+            outstanding.add(lease);
+            current.put(voucherId, lease);
+            log.debug("租借秒杀库存, 优惠券id: {}, 租约: {}, 数量: {}", voucherId, leaseId, granted);
+            return lease;
+        }
+    }
+
+    private void returnExpired() {
+        try {
+            for (Lease lease : outstanding) {
+                if (lease.isExpired()) {
+                    current.remove(lease.voucherId, lease);
+                    giveBack(lease);
+                }
+            }
+        } catch (Exception e) {
+            log.error("归还到期租约异常", e);
+        }
+    }
+
+    private void giveBack(Lease lease) {
+        if (!outstanding.remove(lease)) {
+            return;
+        }
+        try {
+            Long returned = stringRedisTemplate.execute(
+                    RETURN_SCRIPT, Collections.emptyList(), lease.voucherId.toString(), lease.id);
+            if (returned != null && returned > 0) {
+                // 库存重新可用, 清除各节点的售罄标记
+                soldOutRegistry.clearSoldOut(lease.voucherId);
+                log.debug("归还秒杀库存, 优惠券id: {}, 租约: {}, 数量: {}", lease.voucherId, lease.id, returned);
+            }
+        } catch (Exception e) {
+            // 归还失败时由 Redis 端在回收时间后收回
+            log.warn("归还租约失败, 优惠券id: {}, 租约: {}", lease.voucherId, lease.id, e);
+        }
+    }
+
+    public static class Lease {
+
+        private final Long voucherId;
+
+        @Getter
+        private final String id;
+
+        private final AtomicInteger permits;
+
+        private final long expireAt;
+
+        private Lease(Long voucherId, String id, int permits, long expireAt) {
+            this.voucherId = voucherId;
+            this.id = id;
+            this.permits = new AtomicInteger(permits);
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expireAt;
+        }
+    }
+}
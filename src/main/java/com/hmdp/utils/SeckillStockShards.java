@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS_KEY;
+
+/**
+ * 热点券库存分片. 库存拆到 K 个子计数器 seckill:stock:{voucherId:i}, hash tag 不同, 在集群中分散到不同的 slot:
+ * 1. 用户先在自己的主分片(userId % K)扣减, 主分片扣完后依次尝试兄弟分片, 全部扣完才算售罄
+ * 2. 扣减只访问一个分片key, 一人一单和发消息在之后的脚本中完成, 重复下单时把库存退回原分片
+ * 3. 两步之间节点宕机只会少卖一个, 不会超卖
+ */
+@Component
+public class SeckillStockShards {
+
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_stock_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 新建秒杀券的库存分片数, 1 表示不分片
+     */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    /**
+     * 券id -> 分片数, 券创建后不变; 短暂缓存未分片的结果, 其它节点新建的券很快可见
+     */
+    private final Cache<Long, Integer> shardCounts = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    public SeckillStockShards(StringRedisTemplate stringRedisTemplate, SeckillSoldOutRegistry soldOutRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutRegistry = soldOutRegistry;
+    }
+
+    public static String shardKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 写入新建秒杀券的库存, 分片时余数分给前几个分片, 保证总和不变
+     */
+    public void init(Long voucherId, int stock) {
+        if (stockShards <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            return;
+        }
+        // 各分片在不同 slot, 逐个 SET, 不用 MSET
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < stockShards; i++) {
+                int shardStock = stock / stockShards + (i < stock % stockShards ? 1 : 0);
+                stringConnection.set(shardKey(voucherId, i), String.valueOf(shardStock));
+            }
+            return null;
+        });
+        // 最后写分片数, 读到分片数时所有分片都已写入
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_SHARDS_KEY + voucherId, String.valueOf(stockShards));
+        shardCounts.put(voucherId, stockShards);
+    }
+
+    /**
+     * 券的库存分片数, 未分片时为 1
+     */
+    public int shardsOf(Long voucherId) {
+        return shardCounts.get(voucherId, id -> {
+            String shards = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_SHARDS_KEY + id);
+            return shards == null ? 1 : Integer.parseInt(shards);
+        });
+    }
+
+    /**
+     * 从主分片开始依次扣减一个库存
+     *
+     * @return 扣减成功的分片, 所有分片都已扣完时返回 -1
+     */
+    public int take(Long voucherId, Long userId, int shards) {
+        int home = (int) (userId % shards);
+        for (int i = 0; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long taken = stringRedisTemplate.execute(
+                    TAKE_SCRIPT, Collections.singletonList(shardKey(voucherId, shard)));
+            if (taken != null && taken == 1) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 下单失败(例如重复下单)时把库存退回原分片, 分片从 0 变为 1 时清除售罄标记
+     */
+    public void giveBack(Long voucherId, int shard) {
+        Long stock = stringRedisTemplate.opsForValue().increment(shardKey(voucherId, shard));
+        if (stock != null && stock == 1) {
+            soldOutRegistry.clearSoldOut(voucherId);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.hmdp.dto.AdmissionDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ROOM_KEY;
+
+/**
+ * 秒杀等候室. 开售时用户先排队, 按每张券配置的速率分时间片放行,
+ * 放行的用户拿到带过期时间的签名 token 后才能下单, 其余用户只拿到排队位置和预计等待时间.
+ * token 在本地校验签名, 下单时不需要额外访问 Redis
+ */
+@Component
+public class SeckillWaitingRoom {
+
+    private static final DefaultRedisScript<List> ADMIT_SCRIPT;
+    static {
+        ADMIT_SCRIPT = new DefaultRedisScript<>();
+        ADMIT_SCRIPT.setLocation(new ClassPathResource("seckill_admit.lua"));
+        ADMIT_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 未单独配置的券每秒放行人数
+     */
+    @Value("${hmdp.seckill.room.default-rate:100}")
+    private long defaultRate;
+
+    /**
+     * 放行时间片(毫秒), 每个时间片放行 rate * slice / 1000 人
+     */
+    @Value("${hmdp.seckill.room.slice-millis:1000}")
+    private long sliceMillis;
+
+    /**
+     * token 有效期(秒)
+     */
+    @Value("${hmdp.seckill.room.token-ttl-seconds:60}")
+    private long tokenTtlSeconds;
+
+    /**
+     * 排队数据在最后一个用户入队后保留的时间(秒)
+     */
+    @Value("${hmdp.seckill.room.queue-ttl-seconds:86400}")
+    private long queueTtlSeconds;
+
+    /**
+     * 建议的最长查询间隔(毫秒)
+     */
+    @Value("${hmdp.seckill.room.max-poll-millis:5000}")
+    private long maxPollMillis;
+
+    /**
+     * token 签名密钥的最小长度
+     */
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    @Value("${hmdp.seckill.room.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * token 签名密钥, 所有节点必须一致; 不提供默认值, 从环境变量 HMDP_SECKILL_ROOM_SECRET 或配置中心注入
+     */
+    @Value("${hmdp.seckill.room.secret:}")
+    private String secret;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public SeckillWaitingRoom(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 开启等候室或配置了密钥时校验密钥, 密钥为空或过短时启动失败
+     */
+    @PostConstruct
+    private void init() {
+        if (!enabled && StrUtil.isEmpty(secret)) {
+            return;
+        }
+        if (StrUtil.isBlank(secret) || secret.length() < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException(
+                    "hmdp.seckill.room.secret 未配置或长度小于 " + MIN_SECRET_LENGTH + ", 请通过 HMDP_SECKILL_ROOM_SECRET 注入");
+        }
+    }
+
+    /**
+     * 入队或查询排队进度, 已放行时返回 token
+     */
+    public AdmissionDTO enter(Long voucherId, Long userId) {
+        List<?> result = stringRedisTemplate.execute(
+                ADMIT_SCRIPT,
+                Collections.emptyList(),
+                voucherId.toString(),
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(defaultRate),
+                String.valueOf(sliceMillis),
+                String.valueOf(queueTtlSeconds));
+        AdmissionDTO admission = new AdmissionDTO();
+        if ((Long) Objects.requireNonNull(result).get(0) == 1) {
+            admission.setAdmitted(true);
+            admission.setToken(sign(voucherId, userId,
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(tokenTtlSeconds)));
+            admission.setPosition(0L);
+            admission.setEtaSeconds(0L);
+            return admission;
+        }
+        long position = (Long) result.get(1);
+        long rate = Math.max(1, (Long) result.get(2));
+        long etaMillis = position * 1000 / rate;
+        admission.setAdmitted(false);
+        admission.setPosition(position);
+        admission.setEtaSeconds(TimeUnit.MILLISECONDS.toSeconds(etaMillis + 999));
+        // 离放行越近查询越频繁, 但不小于一个时间片
+        admission.setPollAfterMillis(Math.min(maxPollMillis, Math.max(sliceMillis, etaMillis / 2)));
+        return admission;
+    }
+
+    /**
+     * 校验下单 token: 属于该用户和该券, 且未过期
+     */
+    public boolean verify(Long voucherId, Long userId, String token) {
+        if (StrUtil.isBlank(token)) {
+            return false;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        long expireAt;
+        try {
+            expireAt = Long.parseLong(token.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            return false;
+        }
+        // 常量时间比较, 避免按耗时猜测签名
+        return MessageDigest.isEqual(
+                sign(voucherId, userId, expireAt).getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 设置某张券每秒放行人数, 立即对正在排队的用户生效
+     */
+    public void setRate(Long voucherId, long rate) {
+        stringRedisTemplate.opsForHash().put(SECKILL_ROOM_KEY + voucherId, "rate", String.valueOf(rate));
+    }
+
+    /**
+     * token = 过期时间.签名, 签名覆盖券id、用户id和过期时间
+     */
+    private String sign(Long voucherId, Long userId, long expireAt) {
+        if (StrUtil.isEmpty(secret)) {
+            throw new IllegalStateException("等候室未配置签名密钥");
+        }
+        return expireAt + "." + SecureUtil.hmacSha256(secret).digestHex(voucherId + ":" + userId + ":" + expireAt);
+    }
+}
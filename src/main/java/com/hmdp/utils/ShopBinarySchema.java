@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * Shop 的二进制结构: [非空字段位图][按顺序写出的非空字段]
+ * 新增字段只能追加在末尾
+ */
+public class ShopBinarySchema implements BinarySchema<Shop> {
+
+    @Override
+    public void write(BinaryCacheCodec.Output out, Shop shop) {
+        long presence = bit(shop.getId(), 0) | bit(shop.getName(), 1) | bit(shop.getTypeId(), 2)
+                | bit(shop.getImages(), 3) | bit(shop.getArea(), 4) | bit(shop.getAddress(), 5)
+                | bit(shop.getX(), 6) | bit(shop.getY(), 7) | bit(shop.getAvgPrice(), 8)
+                | bit(shop.getSold(), 9) | bit(shop.getComments(), 10) | bit(shop.getScore(), 11)
+                | bit(shop.getOpenHours(), 12) | bit(shop.getCreateTime(), 13)
+                | bit(shop.getUpdateTime(), 14) | bit(shop.getDistance(), 15);
+        out.writeVarLong(presence);
+        if (shop.getId() != null) out.writeVarLong(shop.getId());
+        if (shop.getName() != null) out.writeString(shop.getName());
+        if (shop.getTypeId() != null) out.writeVarLong(shop.getTypeId());
+        if (shop.getImages() != null) out.writeString(shop.getImages());
+        if (shop.getArea() != null) out.writeString(shop.getArea());
+        if (shop.getAddress() != null) out.writeString(shop.getAddress());
+        if (shop.getX() != null) out.writeDouble(shop.getX());
+        if (shop.getY() != null) out.writeDouble(shop.getY());
+        if (shop.getAvgPrice() != null) out.writeVarLong(shop.getAvgPrice());
+        if (shop.getSold() != null) out.writeVarLong(shop.getSold());
+        if (shop.getComments() != null) out.writeVarLong(shop.getComments());
+        if (shop.getScore() != null) out.writeVarLong(shop.getScore());
+        if (shop.getOpenHours() != null) out.writeString(shop.getOpenHours());
+        if (shop.getCreateTime() != null) out.writeDateTime(shop.getCreateTime());
+        if (shop.getUpdateTime() != null) out.writeDateTime(shop.getUpdateTime());
+        if (shop.getDistance() != null) out.writeDouble(shop.getDistance());
+    }
+
+    @Override
+    public Shop read(BinaryCacheCodec.Input in) {
+        long presence = in.readVarLong();
+        Shop shop = new Shop();
+        if (has(presence, 0)) shop.setId(in.readVarLong());
+        if (has(presence, 1)) shop.setName(in.readString());
+        if (has(presence, 2)) shop.setTypeId(in.readVarLong());
+        if (has(presence, 3)) shop.setImages(in.readString());
+        if (has(presence, 4)) shop.setArea(in.readString());
+        if (has(presence, 5)) shop.setAddress(in.readString());
+        if (has(presence, 6)) shop.setX(in.readDouble());
+        if (has(presence, 7)) shop.setY(in.readDouble());
+        if (has(presence, 8)) shop.setAvgPrice(in.readVarLong());
+        if (has(presence, 9)) shop.setSold((int) in.readVarLong());
+        if (has(presence, 10)) shop.setComments((int) in.readVarLong());
+        if (has(presence, 11)) shop.setScore((int) in.readVarLong());
+        if (has(presence, 12)) shop.setOpenHours(in.readString());
+        if (has(presence, 13)) shop.setCreateTime(in.readDateTime());
+        if (has(presence, 14)) shop.setUpdateTime(in.readDateTime());
+        if (has(presence, 15)) shop.setDistance(in.readDouble());
+        return shop;
+    }
+
+    private static long bit(Object field, int index) {
+        return field == null ? 0 : 1L << index;
+    }
+
+    private static boolean has(long presence, int index) {
+        return (presence & (1L << index)) != 0;
+    }
+}
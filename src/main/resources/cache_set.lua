@@ -0,0 +1,56 @@
+-- 带版本的缓存写入: 回源前读到的版本小于当前版本, 说明回源期间数据库被更新过, 拒绝写入
+-- KEYS[1] 缓存key, KEYS[2] 版本key
+-- ARGV[1] 回源前读到的版本, -1 表示不检查
+-- ARGV[2] 写入格式: string 或 hash(逻辑过期), extend 表示只延长已有 hash 的逻辑过期时间,
+--         field 表示写入分桶存储的一个字段(KEYS[1] 为桶, KEYS[2] 为单条数据的版本key)
+-- ARGV[3] 数据
+-- ARGV[4] string: 过期毫秒数, 0 表示不过期; hash/extend: 逻辑过期时间(毫秒); field: 字段名
+
+local version = tonumber(ARGV[1])
+-- 版本key有过期时间, 过期后回源读到的版本为0, 此时不再与数据中记录的版本比较
+local versionKnown = false
+if version >= 0 then
+    local stored = redis.call('get', KEYS[2])
+    versionKnown = stored ~= false
+    if version < tonumber(stored or '0') then
+        return 0
+    end
+end
+
+if ARGV[2] == 'field' then
+    -- 字段值已包含逻辑过期时间
+    redis.call('hset', KEYS[1], ARGV[4], ARGV[3])
+    return 1
+end
+
+if ARGV[2] == 'extend' then
+    -- 回源失败时继续使用旧数据, key 已被删除或不是 hash 时不写入
+    if redis.call('type', KEYS[1]).ok ~= 'hash' then
+        return 0
+    end
+    redis.call('hset', KEYS[1], 'e', ARGV[4])
+    return 1
+end
+
+if ARGV[2] == 'hash' then
+    -- 逻辑过期数据写入 hash: e 为过期时间(毫秒), d 为数据, v 为版本
+    if redis.call('type', KEYS[1]).ok ~= 'hash' then
+        -- 迁移前是 String 结构, 先删除再写入 hash
+        redis.call('del', KEYS[1])
+    elseif versionKnown then
+        -- 已有更新版本写入的数据
+        local existing = tonumber(redis.call('hget', KEYS[1], 'v') or '-1')
+        if existing > version then
+            return 0
+        end
+    end
+    redis.call('hmset', KEYS[1], 'e', ARGV[4], 'd', ARGV[3], 'v', ARGV[1])
+    return 1
+end
+
+if ARGV[4] == '0' then
+    redis.call('set', KEYS[1], ARGV[3])
+else
+    redis.call('set', KEYS[1], ARGV[3], 'px', ARGV[4])
+end
+return 1
@@ -0,0 +1,44 @@
+---
+--- 令牌桶限流, 多个桶一起判断, 全部有令牌时才各扣一个, 一次往返完成
+---
+--- KEYS：各令牌桶key
+--- 参数：当前时间(毫秒) , 之后每个桶依次为 容量 、 每秒补充的令牌数
+--- 返回：{是否通过, 拒绝的桶序号(从1开始, 通过时为0), 需要等待的毫秒数, 各桶剩余令牌数...}
+local now = tonumber(ARGV[1]);
+
+local tokens = {};
+local allowed = 1;
+local rejected = 0;
+local wait = 0;
+-- 1.按经过的时间补充令牌, 找出第一个令牌不足的桶
+for i = 1, #KEYS do
+    local capacity = tonumber(ARGV[i * 2]);
+    local rate = tonumber(ARGV[i * 2 + 1]);
+    local state = redis.call('hmget', KEYS[i], 'tokens', 'ts');
+    local t = tonumber(state[1]);
+    local ts = tonumber(state[2]);
+    if (t == nil or ts == nil) then
+        t = capacity;
+        ts = now;
+    end
+    t = math.min(capacity, t + math.max(0, now - ts) * rate / 1000);
+    tokens[i] = t;
+    if (t < 1 and allowed == 1) then
+        allowed = 0;
+        rejected = i;
+        wait = math.ceil((1 - t) * 1000 / rate);
+    end
+end
+-- 2.全部通过时各扣一个令牌, 写回补充后的状态, 桶装满后自然过期
+local result = {allowed, rejected, wait};
+for i = 1, #KEYS do
+    local capacity = tonumber(ARGV[i * 2]);
+    local rate = tonumber(ARGV[i * 2 + 1]);
+    if (allowed == 1) then
+        tokens[i] = tokens[i] - 1;
+    end
+    redis.call('hmset', KEYS[i], 'tokens', tostring(tokens[i]), 'ts', now);
+    redis.call('pexpire', KEYS[i], math.ceil(capacity * 1000 / rate) + 1000);
+    result[i + 3] = math.floor(tokens[i]);
+end
+return result;
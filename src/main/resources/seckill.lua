@@ -3,29 +3,50 @@
 --- Created by silverCorridors.
 --- DateTime: 2023/9/10 17:57
 ---
---- 参数：优惠券id 、 用户id
+--- 参数：优惠券id 、 用户id 、 订单id自增key 、 订单id时间戳 、 订单分区stream 、 去重模式(SET/BITMAP/BOTH, 缺省为SET) 、
+---       库存已在分片中扣减(1 表示不再检查和扣减库存, 缺省为0)
+--- 返回：{0, 序列号} 下单成功; {1} 库存不足; {2} 重复下单
 local voucherId = ARGV[1];
 local userId = ARGV[2];
-local orderId = ARGV[3];
+local idKey = ARGV[3];
+local timestamp = ARGV[4];
+local streamKey = ARGV[5];
+local dedupMode = ARGV[6] or 'SET';
+local reserved = ARGV[7] == '1';
 
 -- 数据key
 -- 库存key
 local stockKey = 'seckill:stock:' .. voucherId;
 -- 订单key
 local orderKey = 'seckill:order:' .. voucherId;
--- 判断库存是否充足, 不充足返回1
-if (tonumber(redis.call('get', stockKey)) <= 0) then
-    return 1;
+-- 判断库存是否充足, 不充足返回1; 分片库存已由 seckill_stock_take.lua 扣减
+if (not reserved and tonumber(redis.call('get', stockKey)) <= 0) then
+    return {1};
 end
--- 判断用户是否下单
-if (redis.call('sismember', orderKey, userId) == 1) then
+-- 判断用户是否下单, 按去重模式检查集合或分片位图
+local inSet = dedupMode ~= 'BITMAP';
+local inBitmap = dedupMode == 'BITMAP' or dedupMode == 'BOTH';
+local uid = tonumber(userId);
+local bitmapKey = 'seckill:order:bm:' .. voucherId .. ':' .. math.floor(uid / 1048576);
+local bit = uid % 1048576;
+if ((inSet and redis.call('sismember', orderKey, userId) == 1)
+        or (inBitmap and redis.call('getbit', bitmapKey, bit) == 1)) then
     -- 存在，说明是重复下单
-    return 2;
+    return {2};
 end
 -- 扣库存
-redis.call('incrby', stockKey, -1);
+if (not reserved) then
+    redis.call('incrby', stockKey, -1);
+end
 -- 下单（保存用户id）
-redis.call('sadd', orderKey, userId);
--- 发送消息到消息队列
-redis.call('XADD', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0;
\ No newline at end of file
+if (inSet) then
+    redis.call('sadd', orderKey, userId);
+end
+if (inBitmap) then
+    redis.call('setbit', bitmapKey, bit, 1);
+end
+-- 校验通过后才分配订单序列号, 订单id = 时间戳 << 32 | 序列号, 由 Java 端拼接
+local seq = redis.call('incr', idKey);
+-- 发送消息到用户所在分区的消息队列
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'ts', timestamp, 'seq', seq)
+return {0, seq};
\ No newline at end of file
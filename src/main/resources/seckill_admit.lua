@@ -0,0 +1,52 @@
+---
+--- 秒杀排队: 用户按到达顺序入队, 放行游标每个时间片前进固定人数, 排在游标之前的用户获准下单
+---
+--- 参数：优惠券id 、 用户id 、 当前时间(毫秒) 、 默认每秒放行人数 、 时间片(毫秒) 、 排队数据过期时间(秒)
+--- 返回：{1} 已放行; {0, 前面还有的人数, 每秒放行人数} 继续等待
+local voucherId = ARGV[1];
+local userId = ARGV[2];
+local now = tonumber(ARGV[3]);
+local defaultRate = tonumber(ARGV[4]);
+local slice = tonumber(ARGV[5]);
+local ttl = tonumber(ARGV[6]);
+
+-- 数据key
+-- 排队 zset, score 为到达序号, 成员不删除, 排名即到达顺序
+local queueKey = 'seckill:room:queue:' .. voucherId;
+-- 排队状态 hash: seq 到达序号, cursor 放行游标, tick 游标最近推进的时间, rate 每秒放行人数
+local roomKey = 'seckill:room:' .. voucherId;
+
+-- 1.入队, 已在队列中时保持原位置
+local rank = redis.call('zrank', queueKey, userId);
+if (rank == false) then
+    local seq = redis.call('hincrby', roomKey, 'seq', 1);
+    redis.call('zadd', queueKey, seq, userId);
+    redis.call('expire', queueKey, ttl);
+    redis.call('expire', roomKey, ttl);
+    rank = redis.call('zrank', queueKey, userId);
+end
+-- 2.按时间片推进放行游标
+local rate = tonumber(redis.call('hget', roomKey, 'rate')) or defaultRate;
+local perSlice = math.max(1, math.floor(rate * slice / 1000));
+local cursor = tonumber(redis.call('hget', roomKey, 'cursor'));
+local tick = tonumber(redis.call('hget', roomKey, 'tick'));
+if (cursor == nil or tick == nil) then
+    -- 第一个时间片立即放行
+    cursor = perSlice;
+    tick = now;
+    redis.call('hmset', roomKey, 'cursor', cursor, 'tick', tick);
+else
+    local slices = math.floor((now - tick) / slice);
+    if (slices > 0) then
+        -- 队列空闲时不积累放行名额, 游标最多领先队尾一个时间片, 避免之后瞬间涌入
+        local size = redis.call('zcard', queueKey);
+        cursor = math.max(cursor, math.min(cursor + slices * perSlice, size + perSlice));
+        tick = tick + slices * slice;
+        redis.call('hmset', roomKey, 'cursor', cursor, 'tick', tick);
+    end
+end
+-- 3.判断是否已放行
+if (rank < cursor) then
+    return {1};
+end
+return {0, rank - cursor + 1, rate};
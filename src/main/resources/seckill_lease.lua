@@ -0,0 +1,42 @@
+---
+--- 从秒杀库存中租借一批库存给当前节点, 同时回收宕机节点过期未归还的租约
+---
+--- 参数：优惠券id 、 租约id 、 申请数量 、 当前时间(毫秒) 、 租约回收时间(毫秒)
+--- 返回：{租到的数量, 租到0个时其它节点未用完的租约数}
+local voucherId = ARGV[1];
+local leaseId = ARGV[2];
+local chunk = tonumber(ARGV[3]);
+local now = tonumber(ARGV[4]);
+local reclaimAt = tonumber(ARGV[5]);
+
+-- 数据key
+-- 租约剩余库存 hash, field 为租约id
+local leaseKey = 'seckill:lease:' .. voucherId;
+-- 租约回收时间 zset
+local expireKey = 'seckill:lease:exp:' .. voucherId;
+-- 库存key
+local stockKey = 'seckill:stock:' .. voucherId;
+
+-- 1.回收过期的租约, 剩余库存退回库存key
+local expired = redis.call('zrangebyscore', expireKey, '-inf', now);
+for _, id in ipairs(expired) do
+    local left = tonumber(redis.call('hget', leaseKey, id)) or 0;
+    if (left > 0) then
+        redis.call('incrby', stockKey, left);
+    end
+    redis.call('hdel', leaseKey, id);
+    redis.call('zrem', expireKey, id);
+end
+-- 2.扣减库存, 最多 chunk 个
+local stock = tonumber(redis.call('get', stockKey)) or 0;
+local granted = math.min(stock, chunk);
+if (granted > 0) then
+    redis.call('incrby', stockKey, -granted);
+end
+if (granted == 0) then
+    return {0, redis.call('hlen', leaseKey)};
+end
+-- 3.登记租约, 节点按时归还时会删除, 否则到回收时间后由下一次租借回收
+redis.call('hset', leaseKey, leaseId, granted);
+redis.call('zadd', expireKey, reclaimAt, leaseId);
+return {granted, 0};
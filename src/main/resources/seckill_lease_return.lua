@@ -0,0 +1,17 @@
+---
+--- 归还租约中未用完的库存
+---
+--- 参数：优惠券id 、 租约id
+--- 返回：归还的数量, 租约已被回收时为0
+local voucherId = ARGV[1];
+local leaseId = ARGV[2];
+
+local leaseKey = 'seckill:lease:' .. voucherId;
+local left = tonumber(redis.call('hget', leaseKey, leaseId)) or 0;
+redis.call('hdel', leaseKey, leaseId);
+redis.call('zrem', 'seckill:lease:exp:' .. voucherId, leaseId);
+if (left <= 0) then
+    return 0;
+end
+redis.call('incrby', 'seckill:stock:' .. voucherId, left);
+return left;
@@ -0,0 +1,51 @@
+---
+--- 租约模式下单: 库存已在本地租约中判断, 这里只做一人一单, 并扣减租约在 Redis 中的剩余数
+---
+--- 参数：优惠券id 、 用户id 、 订单id自增key 、 订单id时间戳 、 订单分区stream 、 租约id 、 去重模式(SET/BITMAP/BOTH)
+--- 返回：{0, 序列号} 下单成功; {2} 重复下单; {3} 租约已归还或被回收
+local voucherId = ARGV[1];
+local userId = ARGV[2];
+local idKey = ARGV[3];
+local timestamp = ARGV[4];
+local streamKey = ARGV[5];
+local leaseId = ARGV[6];
+local dedupMode = ARGV[7] or 'SET';
+
+-- 数据key
+local leaseKey = 'seckill:lease:' .. voucherId;
+local orderKey = 'seckill:order:' .. voucherId;
+-- 租约不存在或已用完, 不能再下单, 否则会超卖
+local left = tonumber(redis.call('hget', leaseKey, leaseId));
+if (left == nil or left <= 0) then
+    return {3};
+end
+-- 判断用户是否下单, 按去重模式检查集合或分片位图
+local inSet = dedupMode ~= 'BITMAP';
+local inBitmap = dedupMode == 'BITMAP' or dedupMode == 'BOTH';
+local uid = tonumber(userId);
+local bitmapKey = 'seckill:order:bm:' .. voucherId .. ':' .. math.floor(uid / 1048576);
+local bit = uid % 1048576;
+if ((inSet and redis.call('sismember', orderKey, userId) == 1)
+        or (inBitmap and redis.call('getbit', bitmapKey, bit) == 1)) then
+    -- 存在，说明是重复下单
+    return {2};
+end
+-- 扣减租约, 用完时删除
+if (left == 1) then
+    redis.call('hdel', leaseKey, leaseId);
+    redis.call('zrem', 'seckill:lease:exp:' .. voucherId, leaseId);
+else
+    redis.call('hincrby', leaseKey, leaseId, -1);
+end
+-- 下单（保存用户id）
+if (inSet) then
+    redis.call('sadd', orderKey, userId);
+end
+if (inBitmap) then
+    redis.call('setbit', bitmapKey, bit, 1);
+end
+-- 分配订单序列号, 订单id = 时间戳 << 32 | 序列号, 由 Java 端拼接
+local seq = redis.call('incr', idKey);
+-- 发送消息到用户所在分区的消息队列
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'ts', timestamp, 'seq', seq)
+return {0, seq};
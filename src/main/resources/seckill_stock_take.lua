@@ -0,0 +1,11 @@
+---
+--- 从一个库存分片中扣减一个库存, 分片key带 hash tag, 每个分片可以落在不同的 slot
+---
+--- KEYS[1] 库存分片key
+--- 返回：1 扣减成功; 0 该分片已扣完
+local stock = tonumber(redis.call('get', KEYS[1]) or '0');
+if (stock <= 0) then
+    return 0;
+end
+redis.call('incrby', KEYS[1], -1);
+return 1;
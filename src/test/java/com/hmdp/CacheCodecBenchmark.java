@@ -0,0 +1,84 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+
+/**
+ * 对比 JSON 与二进制编解码: 每个值的字节数、编解码耗时、每次操作的内存分配.
+ * 正确性由 CacheCodecTest 覆盖, 这里只输出性能数据
+ */
+@Tag("benchmark")
+public class CacheCodecBenchmark {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void compareCodecs() {
+        RedisData redisData = new RedisData();
+        redisData.setData(typicalShop());
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30).withNano(0));
+
+        run("json", new JsonCacheCodec(), redisData);
+        run("binary", new BinaryCacheCodec(), redisData);
+    }
+
+    private void run(String name, CacheCodec codec, RedisData redisData) {
+        byte[] bytes = codec.encodeRedisData(redisData);
+        for (int i = 0; i < WARMUP; i++) {
+            codec.decodeRedisData(codec.encodeRedisData(redisData), Shop.class);
+        }
+
+        long allocBegin = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            bytes = codec.encodeRedisData(redisData);
+        }
+        long encodeNs = (System.nanoTime() - begin) / ITERATIONS;
+        long encodeAlloc = (allocatedBytes() - allocBegin) / ITERATIONS;
+
+        allocBegin = allocatedBytes();
+        begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decodeRedisData(bytes, Shop.class);
+        }
+        long decodeNs = (System.nanoTime() - begin) / ITERATIONS;
+        long decodeAlloc = (allocatedBytes() - allocBegin) / ITERATIONS;
+
+        System.out.printf("%-6s bytes=%d encode=%dns/op (%dB/op) decode=%dns/op (%dB/op)%n",
+                name, bytes.length, encodeNs, encodeAlloc, decodeNs, decodeAlloc);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Shop typicalShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0e3ZTk1VKqkvAlSyfvCfN0Ng8oeFHy4xGZ5jp3yKx5ESzHwPJCl2vTYC1YFzcEsYHUezSn8QzBnOWJK0YH94TG4s7T8TSMFn.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * JSON 与二进制编解码的往返一致性
+ */
+public class CacheCodecTest {
+
+    @Test
+    void roundTrip() {
+        RedisData redisData = redisData();
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+            byte[] bytes = codec.encodeRedisData(redisData);
+            RedisData decoded = codec.decodeRedisData(bytes, Shop.class);
+            assertEquals(redisData.getData(), decoded.getData());
+            assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        }
+    }
+
+    @Test
+    void binaryReadsLegacyJson() {
+        // 二进制编解码器可以读取历史 JSON 数据
+        RedisData redisData = redisData();
+        byte[] json = new JsonCacheCodec().encodeRedisData(redisData);
+        RedisData migrated = new BinaryCacheCodec().decodeRedisData(json, Shop.class);
+        assertEquals(redisData.getData(), migrated.getData());
+        assertEquals(redisData.getExpireTime(), migrated.getExpireTime());
+    }
+
+    private static RedisData redisData() {
+        RedisData redisData = new RedisData();
+        redisData.setData(CacheCodecBenchmark.typicalShop());
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30).withNano(0));
+        return redisData;
+    }
+}
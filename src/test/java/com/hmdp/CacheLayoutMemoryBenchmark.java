@@ -0,0 +1,130 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * 在本地 Redis 上对比店铺缓存不同存储方式的内存占用, 输出每条数据的字节数:
+ * 每个店铺一个 String、每个店铺一个 hash(逻辑过期)、按 id 分桶的小 hash.
+ * 依赖本地 Redis, 默认不运行, 用 -Dgroups=benchmark 单独运行
+ */
+@Tag("benchmark")
+@SpringBootTest
+class CacheLayoutMemoryBenchmark {
+
+    private static final int ENTRIES = 20_000;
+    private static final int CHUNK = 1_000;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.bucket.size:100}")
+    private long bucketSize;
+
+    @Test
+    void compareLayouts() {
+        printHashConfig();
+        measure("string", CacheStrategy.PASS_THROUGH, "bench:layout:string:");
+        measure("hash", CacheStrategy.LOGICAL_EXPIRE, "bench:layout:hash:");
+        measure("bucket", CacheStrategy.BUCKETED, "bench:layout:bucket:");
+    }
+
+    private void measure(String name, CacheStrategy strategy, String keyPrefix) {
+        List<String> keys = strategy == CacheStrategy.BUCKETED
+                ? LongStream.range(0, (ENTRIES + bucketSize - 1) / bucketSize)
+                    .mapToObj(b -> keyPrefix + "b:" + b).collect(Collectors.toList())
+                : LongStream.range(0, ENTRIES).mapToObj(id -> keyPrefix + id).collect(Collectors.toList());
+        stringRedisTemplate.delete(keys);
+        try {
+            long before = usedMemory();
+            for (long start = 0; start < ENTRIES; start += CHUNK) {
+                List<Long> ids = LongStream.range(start, Math.min(start + CHUNK, ENTRIES)).boxed().collect(Collectors.toList());
+                cacheClient.preload(strategy, keyPrefix, ids, CacheLayoutMemoryBenchmark::shops, 30L, TimeUnit.MINUTES);
+            }
+            long used = usedMemory() - before;
+
+            long sampled = 0;
+            for (String key : keys) {
+                sampled += memoryUsage(key);
+            }
+            String encoding = stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    String.valueOf(connection.keyCommands().encodingOf(keys.get(0).getBytes(StandardCharsets.UTF_8))));
+            System.out.printf("%-6s keys=%d encoding=%s used_memory=%dB/entry memory_usage=%dB/entry%n",
+                    name, keys.size(), encoding, used / ENTRIES, sampled / ENTRIES);
+        } finally {
+            // 中途失败也删除写入的数据
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    private void printHashConfig() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            // Redis 7 起为 hash-max-listpack-*, 旧名称仍然可用
+            System.out.println(connection.serverCommands().getConfig("hash-max-ziplist-*"));
+            return null;
+        });
+    }
+
+    private long usedMemory() {
+        Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection ->
+                connection.serverCommands().info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+
+    private long memoryUsage(String key) {
+        Object usage = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY",
+                        "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+        return usage == null ? 0 : (Long) usage;
+    }
+
+    private static Map<Long, Shop> shops(Collection<Long> ids) {
+        Map<Long, Shop> shops = new LinkedHashMap<>(ids.size() * 2);
+        for (Long id : ids) {
+            shops.put(id, shop(id));
+        }
+        return shops;
+    }
+
+    private static Shop shop(long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("103茶餐厅" + id);
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0e3ZTk1VKqkvAlSyfvCfN0Ng8oeFHy4xGZ5jp3yKx5ESzHwPJCl2vTYC1YFzcEsYHUezSn8QzBnOWJK0YH94TG4s7T8TSMFn.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
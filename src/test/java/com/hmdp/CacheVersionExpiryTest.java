@@ -0,0 +1,66 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 版本key过期后, 逻辑过期 hash 中记录的旧版本不能拒绝后续写入
+ */
+@SpringBootTest
+class CacheVersionExpiryTest {
+
+    private static final String KEY_PREFIX = "test:version:shop:";
+    private static final Long ID = 1L;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void rebuildAfterVersionKeyExpired() {
+        String key = KEY_PREFIX + ID;
+        String versionKey = CACHE_VERSION_KEY + key;
+        try {
+            // 1.数据更新过一次, 按版本1写入
+            stringRedisTemplate.opsForValue().set(versionKey, "1");
+            preload("v1");
+            assertEquals("1", stringRedisTemplate.opsForHash().get(key, "v"));
+            // 2.版本key过期, 回源读到的版本为0
+            stringRedisTemplate.delete(versionKey);
+            preload("v2");
+            // 3.写入成功, 不会一直保留旧数据
+            assertEquals("0", stringRedisTemplate.opsForHash().get(key, "v"));
+            // 4.版本key存在时, 数据中记录的更新版本仍然拒绝旧版本写入
+            stringRedisTemplate.opsForValue().set(versionKey, "2");
+            preload("v3");
+            stringRedisTemplate.opsForValue().set(versionKey, "1");
+            preload("v4");
+            assertEquals("2", stringRedisTemplate.opsForHash().get(key, "v"));
+        } finally {
+            stringRedisTemplate.delete(key);
+            stringRedisTemplate.delete(versionKey);
+        }
+    }
+
+    private void preload(String name) {
+        cacheClient.preload(CacheStrategy.LOGICAL_EXPIRE, KEY_PREFIX, Collections.singletonList(ID), ids -> {
+            Shop shop = new Shop();
+            shop.setId(ID);
+            shop.setName(name);
+            return Collections.singletonMap(ID, shop);
+        }, 30L, TimeUnit.MINUTES);
+    }
+}
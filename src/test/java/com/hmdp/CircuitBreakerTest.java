@@ -0,0 +1,135 @@
+package com.hmdp;
+
+import com.hmdp.utils.CircuitBreaker;
+import com.hmdp.utils.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 熔断器 CLOSED/OPEN/HALF_OPEN 状态转换
+ */
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * 窗口内至少 4 次调用, 失败率或慢调用率达到一半时打开, 半开放行 2 个探测
+     */
+    private static CircuitBreaker breaker(long openMillis) {
+        return new CircuitBreaker("test", 60_000, 4, 0.5, 1000, 0.5, openMillis, 2);
+    }
+
+    @Test
+    void staysClosedBelowMinCalls() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire());
+            assertFalse(breaker.onError());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void closedToOpenOnFailureRate() {
+        CircuitBreaker breaker = breaker(60_000);
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(FAST);
+        breaker.onError();
+        assertTrue(breaker.onError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // 打开期间拒绝回源
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void closedToOpenOnSlowRate() {
+        CircuitBreaker breaker = breaker(60_000);
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(SLOW);
+        assertTrue(breaker.onSuccess(SLOW));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void openToHalfOpenLimitsProbes() {
+        CircuitBreaker breaker = opened(0);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        // 探测名额用完
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpenToClosedWhenProbesSucceed() {
+        CircuitBreaker breaker = opened(0);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.onSuccess(FAST));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.onSuccess(FAST));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpenToOpenOnProbeFailure() {
+        CircuitBreaker breaker = opened(60_000);
+        ReflectionTestUtils.setField(breaker, "openUntil", 0L);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.onError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpenToOpenOnSlowProbe() {
+        CircuitBreaker breaker = opened(0);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.onSuccess(SLOW));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void registryRecordsErrorsFromProbes() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(registry, "windowSeconds", 60L);
+        ReflectionTestUtils.setField(registry, "minCalls", 1);
+        ReflectionTestUtils.setField(registry, "failureRate", 0.5);
+        ReflectionTestUtils.setField(registry, "slowCallMillis", 1000L);
+        ReflectionTestUtils.setField(registry, "slowRate", 0.5);
+        ReflectionTestUtils.setField(registry, "openSeconds", 60L);
+        ReflectionTestUtils.setField(registry, "halfOpenProbes", 1);
+        CircuitBreaker breaker = registry.get("test");
+        // Error 同样计为失败, 熔断器打开
+        assertThrows(StackOverflowError.class, () -> registry.call("test", () -> {
+            throw new StackOverflowError();
+        }));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // 半开探测抛出 Error 后重新打开, 不会一直停在半开
+        ReflectionTestUtils.setField(breaker, "openUntil", 0L);
+        assertThrows(StackOverflowError.class, () -> registry.call("test", () -> {
+            throw new StackOverflowError();
+        }));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker opened(long openMillis) {
+        CircuitBreaker breaker = breaker(openMillis);
+        for (int i = 0; i < 4; i++) {
+            breaker.onError();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
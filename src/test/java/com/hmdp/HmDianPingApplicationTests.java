@@ -7,9 +7,14 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -27,22 +32,36 @@ class HmDianPingApplicationTests {
 
     @Test
     void testIdWorker() throws InterruptedException {
-        CountDownLatch latch = new CountDownLatch(300);
+        // 先各跑一轮预热, 再对比每个id一次INCR与号段模式的吞吐
+        runIdWorker("incr", redisIdWorker::nextIdWithIncr);
+        runIdWorker("segment", redisIdWorker::nextIdWithSegment);
+        long incrTime = runIdWorker("incr", redisIdWorker::nextIdWithIncr);
+        long segmentTime = runIdWorker("segment", redisIdWorker::nextIdWithSegment);
+        System.out.println("incr / segment = " + (double) incrTime / Math.max(segmentTime, 1));
+    }
+
+    private long runIdWorker(String mode, Function<String, Long> nextId) throws InterruptedException {
+        int tasks = 300;
+        int idsPerTask = 100;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(tasks);
         Runnable task = () -> {
-            for (int i = 0; i < 100; i++){
-                long id = redisIdWorker.nextId("order");
-                System.out.println("id=" + id);
+            for (int i = 0; i < idsPerTask; i++){
+                ids.add(nextId.apply("order"));
             }
             latch.countDown();
         };
         long begin = System.currentTimeMillis();
-        for (int i = 0; i < 300; i++){
+        for (int i = 0; i < tasks; i++){
             es.submit(task);
         }
         latch.await();
         long end = System.currentTimeMillis();
-        System.out.println("time = " + (end - begin));
-
+        long time = Math.max(end - begin, 1);
+        System.out.println(mode + ": time = " + time + "ms, throughput = " + tasks * idsPerTask * 1000L / time + " ids/s");
+        // id不能重复
+        assertEquals(tasks * idsPerTask, ids.size());
+        return time;
     }
 
 
@@ -0,0 +1,125 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * 在本地 Redis 上对比一人一单去重结构的内存占用, 输出每个用户的字节数:
+ * seckill.lua 原来的 SET 与按 userId >> 20 分片的位图, 分别测试连续和稀疏的 userId.
+ * 依赖本地 Redis, 默认不运行, 用 -Dgroups=benchmark 单独运行
+ */
+@Tag("benchmark")
+@SpringBootTest
+class SeckillDedupMemoryBenchmark {
+
+    private static final int USERS = 200_000;
+    private static final int CHUNK = 5_000;
+    private static final int SHARD_BITS = 20;
+    private static final long SHARD_MASK = (1L << SHARD_BITS) - 1;
+
+    private static final String SET_KEY = "bench:dedup:set";
+    private static final String BITMAP_KEY = "bench:dedup:bm:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void compareDedup() {
+        // 连续注册的用户, 起始 id 与 tb_user 相近
+        measure("dense", LongStream.range(1_000, 1_000 + USERS).toArray());
+        // 每 50 个 id 取一个, 模拟只有少数用户参与
+        measure("sparse", LongStream.range(0, USERS).map(i -> 1_000 + i * 50).toArray());
+    }
+
+    private void measure(String name, long[] userIds) {
+        Set<String> bitmapKeys = new TreeSet<>();
+        for (long userId : userIds) {
+            bitmapKeys.add(BITMAP_KEY + (userId >> SHARD_BITS));
+        }
+        stringRedisTemplate.delete(SET_KEY);
+        stringRedisTemplate.delete(bitmapKeys);
+        try {
+            // 1.SET: SADD seckill:order:{voucherId} userId
+            long before = usedMemory();
+            for (int start = 0; start < userIds.length; start += CHUNK) {
+                int from = start;
+                int to = Math.min(start + CHUNK, userIds.length);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    byte[] key = SET_KEY.getBytes(StandardCharsets.UTF_8);
+                    for (int i = from; i < to; i++) {
+                        connection.setCommands().sAdd(key, String.valueOf(userIds[i]).getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+            }
+            long setUsed = usedMemory() - before;
+            long setUsage = memoryUsage(SET_KEY);
+
+            // 2.BITMAP: SETBIT seckill:order:bm:{voucherId}:{userId >> 20} (userId & 0xFFFFF) 1
+            before = usedMemory();
+            for (int start = 0; start < userIds.length; start += CHUNK) {
+                int from = start;
+                int to = Math.min(start + CHUNK, userIds.length);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i = from; i < to; i++) {
+                        byte[] key = (BITMAP_KEY + (userIds[i] >> SHARD_BITS)).getBytes(StandardCharsets.UTF_8);
+                        connection.stringCommands().setBit(key, userIds[i] & SHARD_MASK, true);
+                    }
+                    return null;
+                });
+            }
+            long bitmapUsed = usedMemory() - before;
+            long bitmapUsage = 0;
+            for (String key : bitmapKeys) {
+                bitmapUsage += memoryUsage(key);
+            }
+
+            System.out.printf("%-6s users=%d set: used_memory=%.2fB/user memory_usage=%.2fB/user%n",
+                    name, userIds.length, (double) setUsed / userIds.length, (double) setUsage / userIds.length);
+            System.out.printf("%-6s users=%d bitmap(%d shards): used_memory=%.2fB/user memory_usage=%.2fB/user%n",
+                    name, userIds.length, bitmapKeys.size(),
+                    (double) bitmapUsed / userIds.length, (double) bitmapUsage / userIds.length);
+
+            // 3.抽查两种结构的判断结果一致
+            List<Long> samples = LongStream.range(0, 100).map(i -> userIds[(int) (i * userIds.length / 100)] + i % 2)
+                    .boxed().collect(Collectors.toList());
+            for (Long userId : samples) {
+                boolean inSet = Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(SET_KEY, userId.toString()));
+                boolean inBitmap = Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                        .getBit(BITMAP_KEY + (userId >> SHARD_BITS), userId & SHARD_MASK));
+                if (inSet != inBitmap) {
+                    throw new IllegalStateException("去重结果不一致, userId: " + userId);
+                }
+            }
+        } finally {
+            // 中途失败也删除写入的数据
+            stringRedisTemplate.delete(SET_KEY);
+            stringRedisTemplate.delete(bitmapKeys);
+        }
+    }
+
+    private long usedMemory() {
+        Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection ->
+                connection.serverCommands().info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+
+    private long memoryUsage(String key) {
+        Object usage = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY",
+                        "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+        return usage == null ? 0 : (Long) usage;
+    }
+}
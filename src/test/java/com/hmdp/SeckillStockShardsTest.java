@@ -0,0 +1,28 @@
+package com.hmdp;
+
+import com.hmdp.utils.SeckillStockShards;
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 库存分片key按 hash tag 分散到不同 slot
+ */
+public class SeckillStockShardsTest {
+
+    @Test
+    void shardKeysSpreadAcrossSlots() {
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            String key = SeckillStockShards.shardKey(10L, i);
+            assertEquals("seckill:stock:{10:" + i + "}", key);
+            slots.add(SlotHash.getSlot(key));
+        }
+        assertTrue(slots.size() > 1, "分片key全部落在同一个 slot");
+    }
+}